@@ -1,7 +1,6 @@
 package org.dsa.iot.shared;
 
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 
 import java.util.concurrent.*;
 
@@ -35,7 +34,7 @@ public class SharedObjects {
 
     public static EventLoopGroup getLoop() {
         if (LOOP == null) {
-            LOOP = new NioEventLoopGroup();
+            LOOP = Transport.newEventLoopGroup(0);
         }
         return LOOP;
     }
@@ -0,0 +1,89 @@
+package org.dsa.iot.shared;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+/**
+ * Selects the network transport used by event loops and channels. The
+ * native epoll transport is used on Linux when it is available and NIO is
+ * used everywhere else. The selection can be forced with the
+ * {@code dsa.shared.transport} property set to {@code epoll}, {@code nio}
+ * or {@code auto}, which is the default.
+ * <p>
+ * Channel classes are resolved from the event loop group they are
+ * registered with so groups that are set externally keep working.
+ */
+public class Transport {
+
+    private static final boolean EPOLL = useEpoll();
+
+    private Transport() {
+    }
+
+    /**
+     * @return Whether new event loop groups use the native epoll transport.
+     */
+    public static boolean isEpoll() {
+        return EPOLL;
+    }
+
+    /**
+     * @param threads Amount of threads, 0 uses the netty default.
+     * @return A new event loop group of the selected transport.
+     */
+    public static EventLoopGroup newEventLoopGroup(int threads) {
+        if (EPOLL) {
+            return new EpollEventLoopGroup(threads);
+        }
+        return new NioEventLoopGroup(threads);
+    }
+
+    /**
+     * @param group Group the channel will be registered with.
+     * @return Client socket channel class compatible with the group.
+     */
+    public static Class<? extends SocketChannel> socketChannel(EventLoopGroup group) {
+        if (group instanceof EpollEventLoopGroup) {
+            return EpollSocketChannel.class;
+        }
+        return NioSocketChannel.class;
+    }
+
+    /**
+     * @param group Group the channel will be registered with.
+     * @return Server socket channel class compatible with the group.
+     */
+    public static Class<? extends ServerSocketChannel> serverSocketChannel(EventLoopGroup group) {
+        if (group instanceof EpollEventLoopGroup) {
+            return EpollServerSocketChannel.class;
+        }
+        return NioServerSocketChannel.class;
+    }
+
+    private static boolean useEpoll() {
+        String transport = System.getProperty("dsa.shared.transport", "auto");
+        if ("nio".equalsIgnoreCase(transport)) {
+            return false;
+        }
+        Throwable cause;
+        try {
+            cause = Epoll.unavailabilityCause();
+        } catch (Throwable t) {
+            cause = t;
+        }
+        boolean available = cause == null;
+        if ("epoll".equalsIgnoreCase(transport) && !available) {
+            String err = "Epoll transport is not available";
+            throw new IllegalStateException(err, cause);
+        }
+        return available;
+    }
+}
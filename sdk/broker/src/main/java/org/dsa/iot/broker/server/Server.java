@@ -3,12 +3,12 @@ package org.dsa.iot.broker.server;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.websocketx.extensions.compression.WebSocketServerCompressionHandler;
 import io.netty.handler.ssl.SslContext;
 import org.dsa.iot.broker.Broker;
+import org.dsa.iot.shared.Transport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,7 +43,7 @@ public class Server {
     public void start(EventLoopGroup bossLoop,
                       EventLoopGroup workerLoop) {
         ServerBootstrap strap = new ServerBootstrap();
-        strap.channel(NioServerSocketChannel.class);
+        strap.channel(Transport.serverSocketChannel(bossLoop));
         strap.childHandler(new WsServerInitializer());
         strap.group(bossLoop, workerLoop);
 
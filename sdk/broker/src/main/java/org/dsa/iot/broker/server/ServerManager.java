@@ -1,10 +1,10 @@
 package org.dsa.iot.broker.server;
 
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.handler.ssl.SslContext;
 import org.dsa.iot.broker.Broker;
 import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.shared.Transport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,8 +40,8 @@ public class ServerManager {
     public void start() throws Exception {
         stop();
         LOGGER.info("Servers are starting");
-        bossLoop = new NioEventLoopGroup(1);
-        workerLoop = new NioEventLoopGroup();
+        bossLoop = Transport.newEventLoopGroup(1);
+        workerLoop = Transport.newEventLoopGroup(0);
 
         final JsonObject httpConf = serverConf.get("http");
         final JsonObject httpsConf = serverConf.get("https");
@@ -7,9 +7,11 @@ import java.io.StringWriter;
 import java.util.LinkedList;
 import java.util.List;
 import org.dsa.iot.dslink.connection.DataHandler;
+import org.dsa.iot.dslink.connection.MessageParser;
 import org.dsa.iot.dslink.link.Requester;
 import org.dsa.iot.dslink.link.Responder;
 import org.dsa.iot.dslink.methods.StreamState;
+import org.dsa.iot.dslink.methods.responses.SubscriptionUpdate;
 import org.dsa.iot.dslink.node.NodeManager;
 import org.dsa.iot.dslink.node.SubscriptionManager;
 import org.dsa.iot.dslink.serializer.SerializationManager;
@@ -157,9 +159,37 @@ public class DSLink {
                     getWriter().writeAck(event.getMsgId());
                 }
             });
+            final SubscriptionUpdate updates = new SubscriptionUpdate(this.requester);
+            getWriter().setRespListener(new MessageParser.ResponseListener() {
+                @Override
+                public void onResponse(JsonObject response) {
+                    try {
+                        DSLink.this.requester.parse(response);
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Failed to parse json", e);
+                    }
+                }
+
+                @Override
+                public void onSubscriptionUpdate(int sid, Object value, String ts,
+                                                 Number count, Number sum,
+                                                 Number min, Number max) {
+                    try {
+                        updates.update(sid, value, ts, count, sum, min, max);
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Failed to handle subscription update", e);
+                    }
+                }
+            });
         }
 
         if (responder) {
+            getWriter().setAckHandler(new Handler<Integer>() {
+                @Override
+                public void handle(Integer ack) {
+                    manager.onAck(ack);
+                }
+            });
             getWriter().setReqHandler(new Handler<DataReceived>() {
                 @Override
                 public void handle(DataReceived event) {
@@ -169,7 +199,9 @@ public class DSLink {
                         JsonObject json = (JsonObject) object;
                         try {
                             JsonObject resp = DSLink.this.responder.parse(json);
-                            responses.add(resp);
+                            if (resp != null) {
+                                responses.add(resp);
+                            }
                         } catch (Exception e) {
                             JsonObject resp = new JsonObject();
                             Integer rid = json.get("rid");
@@ -226,5 +258,6 @@ public class DSLink {
         if (manager != null) {
             manager.stop();
         }
+        this.manager.stop();
     }
 }
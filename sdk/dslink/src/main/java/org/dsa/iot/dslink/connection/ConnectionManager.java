@@ -1,5 +1,6 @@
 package org.dsa.iot.dslink.connection;
 
+import java.io.InputStream;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import org.dsa.iot.dslink.config.Configuration;
@@ -10,7 +11,6 @@ import org.dsa.iot.dslink.provider.LoopProvider;
 import org.dsa.iot.dslink.util.Objects;
 import org.dsa.iot.dslink.util.URLInfo;
 import org.dsa.iot.dslink.util.handler.Handler;
-import org.dsa.iot.dslink.util.json.JsonObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -122,9 +122,9 @@ public class ConnectionManager {
                             }
                         });
 
-                        connector.setOnData(new Handler<JsonObject>() {
+                        connector.setOnRawData(new Handler<InputStream>() {
                             @Override
-                            public void handle(JsonObject event) {
+                            public void handle(InputStream event) {
                                 handler.processData(event);
                             }
                         });
@@ -1,8 +1,12 @@
 package org.dsa.iot.dslink.connection;
 
+import io.netty.util.internal.SystemPropertyUtil;
+import java.io.InputStream;
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 import org.dsa.iot.dslink.node.MessageGenerator;
 import org.dsa.iot.dslink.provider.LoopProvider;
+import org.dsa.iot.dslink.util.PropertyReference;
 import org.dsa.iot.dslink.util.handler.Handler;
 import org.dsa.iot.dslink.util.json.EncodingFormat;
 import org.dsa.iot.dslink.util.json.JsonArray;
@@ -15,11 +19,16 @@ import org.slf4j.LoggerFactory;
  *
  * @author Samuel Grenier
  */
-public class DataHandler implements MessageTracker {
+public class DataHandler implements FlowTracker {
 
     private static final Logger LOGGER;
+    private static final int ACK_DELAY;
 
     private final Object msgLock = new Object();
+    private final Object ackLock = new Object();
+    private int pendingAck;
+    private boolean ackScheduled;
+    private final FlowController flow = new FlowController();
     private NetworkClient client;
     private EncodingFormat format;
     private int lastReceivedAck = 0;
@@ -27,19 +36,61 @@ public class DataHandler implements MessageTracker {
     private Handler<DataReceived> reqHandler;
     private QueuedWriteManager reqsManager;
     private Handler<DataReceived> respHandler;
+    private MessageParser.ResponseListener respListener;
     private QueuedWriteManager respsManager;
+    private Handler<Integer> ackHandler;
 
     @Override
     public void ackReceived(int ack) {
         synchronized (msgLock) {
+            flow.onAck(ack, lastReceivedAck, messageId);
             lastReceivedAck = Math.max(lastReceivedAck, ack);
         }
+        QueuedWriteManager manager = reqsManager;
+        if (manager != null) {
+            manager.ackReceived();
+        }
+        manager = respsManager;
+        if (manager != null) {
+            manager.ackReceived();
+        }
+        Handler<Integer> handler = ackHandler;
+        if (handler != null) {
+            handler.handle(ack);
+        }
+    }
+
+    @Override
+    public int ackWindowSize() {
+        return flow.getWindowSize();
+    }
+
+    /**
+     * @return Flow controller sizing the ack window of the current
+     * connection, which exposes the measured ack round trip time.
+     */
+    public FlowController getFlowController() {
+        return flow;
+    }
+
+    @Override
+    public Integer takePendingAck() {
+        synchronized (ackLock) {
+            if (pendingAck == 0) {
+                return null;
+            }
+            int ack = pendingAck;
+            pendingAck = 0;
+            return ack;
+        }
     }
 
     @Override
     public int incrementMessageId() {
         synchronized (msgLock) {
-            return ++messageId;
+            int id = ++messageId;
+            flow.onSend(id);
+            return id;
         }
     }
 
@@ -102,33 +153,156 @@ public class DataHandler implements MessageTracker {
         }
     }
 
+    /**
+     * Processes incoming data from a remote endpoint without decoding it
+     * into a full JSON tree first. If a response listener is set, the
+     * responses are streamed to it as they are parsed and are acked once
+     * the whole message has been processed. Otherwise the data is decoded
+     * and processed as a {@link JsonObject}.
+     *
+     * @param in Encoded data to process.
+     * @see #setRespListener(MessageParser.ResponseListener)
+     */
+    public void processData(InputStream in) {
+        if (respListener == null || LOGGER.isDebugEnabled()) {
+            JsonObject obj = new JsonObject(format, in);
+            if (obj.contains("ping")) {
+                obj.put("pong", obj.remove("ping"));
+                writePong(obj);
+                return;
+            }
+            processData(obj);
+            return;
+        }
+
+        final MessageParser msg = MessageParser.parse(format, in, respListener);
+        if (msg.hasPing()) {
+            JsonObject obj = new JsonObject();
+            obj.put("pong", msg.getPing());
+            writePong(obj);
+            return;
+        }
+
+        final JsonArray requests = msg.getRequests();
+        if (!(reqHandler == null || requests == null)) {
+            LoopProvider.getProvider().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    reqHandler.handle(new DataReceived(msg.getMsgId(), requests));
+                }
+            });
+        }
+
+        if (msg.hasResponses()) {
+            writeAck(msg.getMsgId());
+        }
+
+        Integer ackId = msg.getAckId();
+        if (ackId != null) {
+            ackReceived(ackId);
+        }
+    }
+
     public void setClient(NetworkClient client, EncodingFormat format) {
         onDisconnected();
+        synchronized (msgLock) {
+            flow.reset();
+        }
+        synchronized (ackLock) {
+            pendingAck = 0;
+        }
         this.client = client;
         this.format = format;
         this.reqsManager = new QueuedWriteManager(client, this, format, "requests");
         this.respsManager = new QueuedWriteManager(client, this, format, "responses");
     }
 
+    /**
+     * Sets the handler that is notified of every ack received from the
+     * remote endpoint.
+     *
+     * @param handler Ack handler.
+     */
+    public void setAckHandler(Handler<Integer> handler) {
+        this.ackHandler = handler;
+    }
+
     public void setReqHandler(Handler<DataReceived> handler) {
         this.reqHandler = handler;
     }
 
+    /**
+     * Sets the handler for incoming responses. This clears any response
+     * listener that was set.
+     *
+     * @param handler Response handler.
+     */
     public void setRespHandler(Handler<DataReceived> handler) {
         this.respHandler = handler;
+        this.respListener = null;
     }
 
+    /**
+     * Sets a listener that receives responses while they are being parsed.
+     * When set, it is used instead of the response handler for data that
+     * is processed through {@link #processData(InputStream)}.
+     *
+     * @param listener Response listener.
+     */
+    public void setRespListener(MessageParser.ResponseListener listener) {
+        this.respListener = listener;
+    }
+
+    /**
+     * Acks a received message. The ack is held back briefly so it can be
+     * sent along with the next outgoing message and is only sent on its
+     * own if no message is written in the meantime.
+     *
+     * @param ack Message ID to ack.
+     */
     public void writeAck(Integer ack) {
-        if (ack == null) {
+        if (ack == null || !isConnected()) {
             return;
         }
-        if (isConnected()) {
+        synchronized (ackLock) {
+            pendingAck = Math.max(pendingAck, ack);
+            if (ackScheduled) {
+                return;
+            }
+            ackScheduled = true;
+        }
+        if (ACK_DELAY <= 0) {
+            flushAck();
+            return;
+        }
+        LoopProvider.getProvider().schedule(new Runnable() {
+            @Override
+            public void run() {
+                flushAck();
+            }
+        }, ACK_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushAck() {
+        Integer ack;
+        synchronized (ackLock) {
+            ackScheduled = false;
+            ack = takePendingAck();
+        }
+        if ((ack != null) && isConnected()) {
             JsonObject obj = new JsonObject();
             obj.put("ack", ack);
             client.write(format, obj);
         }
     }
 
+    private void writePong(JsonObject pong) {
+        if (isConnected()) {
+            client.write(format, pong);
+            LOGGER.debug("Received ping, sending pong");
+        }
+    }
+
     public void writeRequest(JsonObject object, boolean merge) {
         if (object == null) {
             throw new NullPointerException("object");
@@ -148,14 +322,11 @@ public class DataHandler implements MessageTracker {
             throw new NullPointerException("objects");
         }
 
+        // Queued first so the responses can carry the ack
+        writeAck(ackId);
         for (JsonObject o : objects) {
             respsManager.post(o, true);
         }
-        if ((ackId != null) && isConnected()) {
-            JsonObject ack = new JsonObject();
-            ack.put("ack", ackId);
-            client.write(format, ack);
-        }
     }
 
     /**
@@ -212,5 +383,9 @@ public class DataHandler implements MessageTracker {
 
     static {
         LOGGER = LoggerFactory.getLogger(DataHandler.class);
+
+        String s = PropertyReference.ACK_DELAY;
+        ACK_DELAY = SystemPropertyUtil.getInt(s, 5);
+        LOGGER.debug("-D{}: {}", s, ACK_DELAY);
     }
 }
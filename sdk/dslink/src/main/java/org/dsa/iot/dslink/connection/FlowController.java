@@ -0,0 +1,169 @@
+package org.dsa.iot.dslink.connection;
+
+import io.netty.util.internal.SystemPropertyUtil;
+import org.dsa.iot.dslink.util.PropertyReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sizes the window of un-acked outgoing messages based on the measured ack
+ * round trip time, similar to delay based TCP congestion control. The
+ * window grows quickly while acks come back at the base round trip time and
+ * backs off when the round trip time inflates, which means messages are
+ * queuing up on the remote endpoint.
+ * <p>
+ * Mutators must be called under the lock of the owning
+ * {@link MessageTracker}. The getters can be read from any thread.
+ */
+public class FlowController {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlowController.class);
+    private static final int MIN_WINDOW;
+    private static final int MAX_WINDOW;
+
+    /**
+     * Round trip times within this amount of the base round trip time are
+     * never considered to be congestion.
+     */
+    private static final long RTT_SLACK = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final long[] sendTimes;
+    private final int mask;
+
+    private volatile int window = MIN_WINDOW;
+    private volatile long srtt;
+    private volatile long minRtt = Long.MAX_VALUE;
+    private int threshold = MAX_WINDOW;
+    private int growth;
+    private int recoverAt;
+
+    FlowController() {
+        int size = Integer.highestOneBit(MAX_WINDOW - 1) << 1;
+        sendTimes = new long[Math.max(size, 2)];
+        mask = sendTimes.length - 1;
+    }
+
+    /**
+     * @return Current amount of un-acked messages allowed in flight.
+     */
+    public int getWindowSize() {
+        return window;
+    }
+
+    /**
+     * @return Smoothed ack round trip time in milliseconds, or {@code -1}
+     * if no ack has been measured yet.
+     */
+    public double getRtt() {
+        long rtt = srtt;
+        return rtt > 0 ? rtt / 1e6 : -1;
+    }
+
+    /**
+     * @return Lowest ack round trip time seen in milliseconds, or
+     * {@code -1} if no ack has been measured yet.
+     */
+    public double getMinRtt() {
+        long rtt = minRtt;
+        return rtt != Long.MAX_VALUE ? rtt / 1e6 : -1;
+    }
+
+    /**
+     * @return Lower bound of the window.
+     */
+    public int getMinWindowSize() {
+        return MIN_WINDOW;
+    }
+
+    /**
+     * @return Upper bound of the window.
+     */
+    public int getMaxWindowSize() {
+        return MAX_WINDOW;
+    }
+
+    /**
+     * Forgets everything measured so far. Round trip times do not carry
+     * over to a new connection.
+     */
+    void reset() {
+        Arrays.fill(sendTimes, 0);
+        window = MIN_WINDOW;
+        srtt = 0;
+        minRtt = Long.MAX_VALUE;
+        threshold = MAX_WINDOW;
+        growth = 0;
+        recoverAt = 0;
+    }
+
+    /**
+     * A message has been sent.
+     *
+     * @param msgId ID of the sent message.
+     */
+    void onSend(int msgId) {
+        sendTimes[msgId & mask] = System.nanoTime();
+    }
+
+    /**
+     * An ack has been received.
+     *
+     * @param ack     Acked message ID.
+     * @param lastAck Previously acked message ID.
+     * @param msgId   Last sent message ID.
+     */
+    void onAck(int ack, int lastAck, int msgId) {
+        int acked = ack - lastAck;
+        if (acked <= 0 || ack > msgId || (msgId - ack) > mask) {
+            // Duplicate, unknown, or too old to have a send time
+            return;
+        }
+
+        long rtt = Math.max(1, System.nanoTime() - sendTimes[ack & mask]);
+        if (rtt < minRtt) {
+            minRtt = rtt;
+        }
+        long s = srtt;
+        s = (s == 0) ? rtt : s + ((rtt - s) >> 3);
+        srtt = s;
+
+        int w = window;
+        if (s > (2 * minRtt) + RTT_SLACK) {
+            // Once per window of messages
+            if (ack > recoverAt) {
+                w = Math.max(MIN_WINDOW, (w * 3) / 4);
+                threshold = w;
+                recoverAt = msgId;
+            }
+        } else if (w < threshold) {
+            w = Math.min(MAX_WINDOW, w + acked);
+        } else {
+            growth += acked;
+            if (growth >= w) {
+                growth = 0;
+                w = Math.min(MAX_WINDOW, w + 1);
+            }
+        }
+        if (w != window) {
+            window = w;
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace("Ack window: {}, rtt: {}ms", w, getRtt());
+            }
+        }
+    }
+
+    static {
+        String s = PropertyReference.MIN_ACK_WINDOW;
+        int min = SystemPropertyUtil.getInt(s, 8);
+        MIN_WINDOW = Math.max(1, min);
+        LOGGER.debug("-D{}: {}", s, MIN_WINDOW);
+
+        s = PropertyReference.MAX_ACK_WINDOW;
+        int max = SystemPropertyUtil.getInt(s, 256);
+        MAX_WINDOW = Math.max(MIN_WINDOW, max);
+        LOGGER.debug("-D{}: {}", s, MAX_WINDOW);
+    }
+}
@@ -0,0 +1,26 @@
+package org.dsa.iot.dslink.connection;
+
+/**
+ * Message tracker that also sizes the ack window and holds the ack waiting
+ * to be sent. Kept apart from {@link MessageTracker} so that external
+ * implementations of it keep compiling, {@link QueuedWriteManager} falls
+ * back to a fixed window for trackers that do not implement this.
+ */
+interface FlowTracker extends MessageTracker {
+
+    /**
+     * Retrieves the amount of missing acks allowed before outgoing messages
+     * are throttled.
+     *
+     * @return Size of the ack window.
+     */
+    int ackWindowSize();
+
+    /**
+     * Retrieves and clears the ack that is waiting to be sent so it can be
+     * written along with an outgoing message.
+     *
+     * @return Pending ack ID or {@code null} if there is none.
+     */
+    Integer takePendingAck();
+}
@@ -0,0 +1,335 @@
+package org.dsa.iot.dslink.connection;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.dsa.iot.dslink.util.json.EncodingFormat;
+import org.dsa.iot.dslink.util.json.Json;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.dslink.util.json.decoders.ListDecoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Streaming parser for incoming DSA messages. The message envelope is
+ * walked directly from the encoded data. Responses are handed to a
+ * {@link ResponseListener} as soon as they are read and subscription
+ * updates are emitted one at a time without ever building their
+ * surrounding JSON tree. Requests are materialized as they are needed in
+ * full by the responder.
+ */
+public class MessageParser {
+
+    private final ResponseListener listener;
+
+    private Integer msgId;
+    private Integer ackId;
+    private Object ping;
+    private boolean hasPing;
+    private JsonArray requests;
+    private boolean hasResponses;
+
+    private MessageParser(ResponseListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return Message ID of the envelope, can be {@code null}.
+     */
+    public Integer getMsgId() {
+        return msgId;
+    }
+
+    /**
+     * @return Ack ID of the envelope, can be {@code null}.
+     */
+    public Integer getAckId() {
+        return ackId;
+    }
+
+    /**
+     * @return Whether the envelope is a ping.
+     */
+    public boolean hasPing() {
+        return hasPing;
+    }
+
+    /**
+     * @return Value of the ping field, can be {@code null}.
+     */
+    public Object getPing() {
+        return ping;
+    }
+
+    /**
+     * @return Requests of the envelope, can be {@code null}.
+     */
+    public JsonArray getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return Whether the envelope contained responses.
+     */
+    public boolean hasResponses() {
+        return hasResponses;
+    }
+
+    /**
+     * Parses a message envelope. Responses are passed to the listener while
+     * the data is being parsed.
+     *
+     * @param format   Format the data is encoded in.
+     * @param in       Encoded message.
+     * @param listener Listener to pass responses to, responses are skipped
+     *                 if it is {@code null}.
+     * @return The parsed envelope.
+     */
+    public static MessageParser parse(EncodingFormat format,
+                                      InputStream in,
+                                      ResponseListener listener) {
+        MessageParser msg = new MessageParser(listener);
+        JsonParser parser = null;
+        try {
+            parser = Json.createParser(format, in);
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                msg.parseEnvelope(parser);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (parser != null) {
+                try {
+                    parser.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return msg;
+    }
+
+    private void parseEnvelope(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                break;
+            }
+            switch (name) {
+                case "msg":
+                    msgId = readInteger(parser);
+                    break;
+                case "ack":
+                    ackId = readInteger(parser);
+                    break;
+                case "ping":
+                    hasPing = true;
+                    ping = ListDecoder.decodeValue(parser);
+                    break;
+                case "requests":
+                    Object reqs = ListDecoder.decodeValue(parser);
+                    if (reqs instanceof JsonArray) {
+                        requests = (JsonArray) reqs;
+                    }
+                    break;
+                case "responses":
+                    if (token == JsonToken.START_ARRAY) {
+                        hasResponses = true;
+                        parseResponses(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+    }
+
+    private void parseResponses(JsonParser parser) throws IOException {
+        JsonToken token;
+        while (!((token = parser.nextToken()) == JsonToken.END_ARRAY
+                || token == null)) {
+            if (token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+            } else if (listener == null) {
+                parser.skipChildren();
+            } else {
+                parseResponse(parser);
+            }
+        }
+    }
+
+    private void parseResponse(JsonParser parser) throws IOException {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        boolean streamed = false;
+        Integer rid = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                break;
+            }
+            if (rid != null && rid == 0
+                    && token == JsonToken.START_ARRAY
+                    && "updates".equals(name)) {
+                parseUpdates(parser);
+                streamed = true;
+                continue;
+            }
+            Object value = ListDecoder.decodeValue(parser);
+            if ("rid".equals(name) && value instanceof Number) {
+                rid = ((Number) value).intValue();
+            }
+            fields.put(name, value);
+        }
+        if (!streamed) {
+            listener.onResponse(new JsonObject(fields));
+        }
+    }
+
+    private void parseUpdates(JsonParser parser) throws IOException {
+        JsonToken token;
+        while (!((token = parser.nextToken()) == JsonToken.END_ARRAY
+                || token == null)) {
+            if (token == JsonToken.START_ARRAY) {
+                parseArrayUpdate(parser);
+            } else if (token == JsonToken.START_OBJECT) {
+                parseObjectUpdate(parser);
+            } else {
+                String err = "Invalid subscription update: " + token;
+                throw new RuntimeException(err);
+            }
+        }
+    }
+
+    private void parseArrayUpdate(JsonParser parser) throws IOException {
+        Integer sid = null;
+        Object value = null;
+        String ts = null;
+        int index = 0;
+        JsonToken token;
+        while (!((token = parser.nextToken()) == JsonToken.END_ARRAY
+                || token == null)) {
+            switch (index++) {
+                case 0:
+                    sid = readInteger(parser);
+                    break;
+                case 1:
+                    value = ListDecoder.decodeValue(parser);
+                    break;
+                case 2:
+                    ts = readString(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (sid != null) {
+            listener.onSubscriptionUpdate(sid, value, ts, null, null, null, null);
+        }
+    }
+
+    private void parseObjectUpdate(JsonParser parser) throws IOException {
+        Integer sid = null;
+        Object value = null;
+        String ts = null;
+        Number count = null;
+        Number sum = null;
+        Number min = null;
+        Number max = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            if (parser.nextToken() == null) {
+                break;
+            }
+            switch (name) {
+                case "sid":
+                    sid = readInteger(parser);
+                    break;
+                case "value":
+                    value = ListDecoder.decodeValue(parser);
+                    break;
+                case "ts":
+                    ts = readString(parser);
+                    break;
+                case "count":
+                    count = readNumber(parser);
+                    break;
+                case "sum":
+                    sum = readNumber(parser);
+                    break;
+                case "min":
+                    min = readNumber(parser);
+                    break;
+                case "max":
+                    max = readNumber(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (sid != null) {
+            listener.onSubscriptionUpdate(sid, value, ts, count, sum, min, max);
+        }
+    }
+
+    private static Integer readInteger(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT
+                || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getIntValue();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private static Number readNumber(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT
+                || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getNumberValue();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private static String readString(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    /**
+     * Receives responses as they are parsed from a message.
+     */
+    public interface ResponseListener {
+
+        /**
+         * Called for every response that is not a subscription update.
+         *
+         * @param response Fully materialized response.
+         */
+        void onResponse(JsonObject response);
+
+        /**
+         * Called for every subscription update in a {@code rid} 0 response.
+         *
+         * @param sid   Subscription ID of the update.
+         * @param value Raw value of the update, can be {@code null}.
+         * @param ts    Timestamp of the update, can be {@code null}.
+         * @param count Count of the update, can be {@code null}.
+         * @param sum   Sum of the update, can be {@code null}.
+         * @param min   Minimum of the update, can be {@code null}.
+         * @param max   Maximum of the update, can be {@code null}.
+         */
+        void onSubscriptionUpdate(int sid, Object value, String ts,
+                                  Number count, Number sum,
+                                  Number min, Number max);
+    }
+}
@@ -3,6 +3,8 @@ package org.dsa.iot.dslink.connection;
 import org.dsa.iot.dslink.util.handler.Handler;
 import org.dsa.iot.dslink.util.json.JsonObject;
 
+import java.io.InputStream;
+
 /**
  * Handles network clients on vertx events.
  *
@@ -13,6 +15,7 @@ class NetworkHandlers {
     private Handler<Void> onConnected;
     private Handler<Void> onDisconnected;
     private Handler<JsonObject> onData;
+    private Handler<InputStream> onRawData;
 
     public Handler<Void> getOnConnected() {
         return onConnected;
@@ -37,4 +40,19 @@ class NetworkHandlers {
     public void setOnData(Handler<JsonObject> onData) {
         this.onData = onData;
     }
+
+    public Handler<InputStream> getOnRawData() {
+        return onRawData;
+    }
+
+    /**
+     * Sets a handler that receives the undecoded data. When set, it takes
+     * precedence over the data handler and becomes responsible for
+     * decoding the data and answering pings.
+     *
+     * @param onRawData Raw data handler.
+     */
+    public void setOnRawData(Handler<InputStream> onRawData) {
+        this.onRawData = onRawData;
+    }
 }
@@ -1,13 +1,14 @@
 package org.dsa.iot.dslink.connection;
 
+import io.netty.util.internal.PlatformDependent;
 import io.netty.util.internal.SystemPropertyUtil;
-import java.util.HashMap;
+import java.util.ArrayDeque;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.ScheduledFuture;
+import java.util.Queue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.dsa.iot.dslink.node.MessageGenerator;
 import org.dsa.iot.dslink.provider.LoopProvider;
 import org.dsa.iot.dslink.util.PropertyReference;
@@ -17,21 +18,46 @@ import org.dsa.iot.dslink.util.json.JsonObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Queues outgoing messages of a connection and writes them out in batches.
+ * Publishers only ever enqueue into lock-free multi-producer queues. A
+ * single drain task per manager runs on the event loop, merges queued
+ * messages by request ID and writes them out once the network allows it.
+ * <p>
+ * The delay before a drain starts adapts to the load. It grows while
+ * batches fill up or the network is backed up so more messages can be
+ * merged into each frame, and shrinks back to nothing when idle so single
+ * messages are sent without delay. Each frame is capped by both a message
+ * count and an estimated encoded size.
+ * <p>
+ * When the ack window of the {@link MessageTracker} is full the drain task
+ * parks until {@link #ackReceived()} signals that the window opened again.
+ */
 public class QueuedWriteManager implements Runnable {
 
     private static final int CHUNK = 1000;
+    // Ack window of trackers that do not size it themselves
+    private static final int ACK_WINDOW = 8;
     private static final int DISPATCH_DELAY;
+    private static final int MAX_BATCH_SIZE;
     private static final Logger LOGGER = LoggerFactory.getLogger(QueuedWriteManager.class);
 
     private final NetworkClient client;
     private final EncodingFormat format;
-    private final Map<Integer, JsonObject> mergedTasks = new HashMap<>();
-    private final List<JsonObject> rawTasks = new LinkedList<>();
+    private final Queue<JsonObject> mergeQueue = PlatformDependent.newMpscQueue();
+    private final Queue<JsonObject> rawQueue = PlatformDependent.newMpscQueue();
+    private final AtomicBoolean draining = new AtomicBoolean();
     private final String topName;
     private final MessageTracker tracker;
+    private final FlowTracker flow;
     private final Object writeMutex = new Object();
-    private ScheduledFuture<?> fut;
-    private boolean open = true;
+    private volatile boolean open = true;
+    private volatile int batchDelay;
+    private volatile boolean parked;
+
+    // Only accessed by the drain task
+    private final Map<Integer, JsonObject> mergedTasks = new LinkedHashMap<>();
+    private final Queue<JsonObject> rawTasks = new ArrayDeque<>();
 
     public QueuedWriteManager(NetworkClient client,
                               MessageTracker tracker,
@@ -48,53 +74,64 @@ public class QueuedWriteManager implements Runnable {
         }
         this.format = format;
         this.tracker = tracker;
+        this.flow = tracker instanceof FlowTracker ? (FlowTracker) tracker : null;
         this.topName = topName;
         this.client = client;
     }
 
-    public synchronized void close() {
+    public void close() {
         open = false;
-        rawTasks.clear();
-        mergedTasks.clear();
+        // Let the drain task release anything still queued
+        scheduleDrain();
     }
 
+    /**
+     * Wakes up the drain task if it is waiting on the ack window.
+     */
+    void ackReceived() {
+        if (parked && !ackWindowFull()) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Queues a message to be written. This never blocks, the message is
+     * written out by the drain task.
+     *
+     * @param content Message to write.
+     * @param merge   Whether the message can be merged with other messages
+     *                of the same request ID.
+     * @return Whether the message was queued.
+     */
     public boolean post(JsonObject content, boolean merge) {
         if (!open) {
             return false;
         }
-        synchronized (this) {
-            if (shouldQueue()) {
-                addTask(content, merge);
-                schedule(DISPATCH_DELAY);
-                return false;
-            }
+        if (merge) {
+            mergeQueue.add(content);
+        } else {
+            rawQueue.add(content);
         }
-        JsonArray updates = new JsonArray();
-        updates.add(content);
-        forceWriteUpdates(updates);
+        scheduleDrain();
         return true;
     }
 
     public void run() {
-        if (!open) {
-            return;
-        }
-        final JsonArray updates;
-        synchronized (this) {
-            fut = null;
-            if (shouldQueue()) {
-                updates = null;
-            } else {
-                updates = fetchUpdates();
+        try {
+            if (drain()) {
+                return;
             }
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to write queued messages", e);
         }
-        if (updates != null) {
-            forceWriteUpdates(updates);
-        }
-        synchronized (this) {
-            if (hasTasks()) {
-                schedule(1);
+        draining.set(false);
+        if (parked) {
+            // An ack may have arrived before the drain task was released
+            if (!ackWindowFull()) {
+                scheduleDrain();
             }
+        } else if (!(mergeQueue.isEmpty() && rawQueue.isEmpty())) {
+            scheduleDrain();
         }
     }
 
@@ -107,11 +144,9 @@ public class QueuedWriteManager implements Runnable {
         if (!open) {
             return;
         }
-        synchronized (this) {
-            if (shouldQueue()) {
-                generator.retry();
-                return;
-            }
+        if (draining.get() || shouldQueue()) {
+            generator.retry();
+            return;
         }
         JsonObject obj = generator.getMessage(tracker.lastAckReceived());
         if (obj != null) {
@@ -121,7 +156,7 @@ public class QueuedWriteManager implements Runnable {
         }
     }
 
-    private synchronized void addTask(JsonObject content, boolean merge) {
+    private void addTask(JsonObject content, boolean merge) {
         if (merge) {
             int rid = content.get("rid");
             JsonObject fromMerged = mergedTasks.get(rid);
@@ -152,6 +187,69 @@ public class QueuedWriteManager implements Runnable {
         }
     }
 
+    /**
+     * Writes out as much as the network currently allows.
+     *
+     * @return Whether the drain task was rescheduled to continue later.
+     */
+    private boolean drain() {
+        parked = false;
+        if (!open) {
+            mergeQueue.clear();
+            rawQueue.clear();
+            mergedTasks.clear();
+            rawTasks.clear();
+            return false;
+        }
+        drainQueues();
+        boolean loaded = false;
+        while (hasTasks()) {
+            if (shouldQueue()) {
+                adaptBatchDelay(true);
+                if (client.writable()) {
+                    // Held back by the ack window, wait for an ack
+                    parked = true;
+                    return false;
+                }
+                LoopProvider.getProvider().schedule(this, DISPATCH_DELAY, TimeUnit.MILLISECONDS);
+                return true;
+            }
+            forceWriteUpdates(fetchUpdates());
+            // Anything left over means the batch was capped
+            loaded |= hasTasks();
+        }
+        adaptBatchDelay(loaded);
+        return false;
+    }
+
+    /**
+     * Doubles the batch window under load up to the dispatch delay and halves
+     * it otherwise.
+     */
+    private void adaptBatchDelay(boolean loaded) {
+        int delay = batchDelay;
+        if (loaded) {
+            delay = Math.min(DISPATCH_DELAY, Math.max(1, delay * 2));
+        } else {
+            delay /= 2;
+        }
+        batchDelay = delay;
+    }
+
+    /**
+     * Moves everything published so far into the pending tasks, merging
+     * by request ID along the way.
+     */
+    private void drainQueues() {
+        JsonObject content;
+        while ((content = mergeQueue.poll()) != null) {
+            addTask(content, true);
+        }
+        while ((content = rawQueue.poll()) != null) {
+            addTask(content, false);
+        }
+    }
+
     private JsonArray fetchUpdates() {
         if (!hasTasks()) {
             return null;
@@ -159,19 +257,49 @@ public class QueuedWriteManager implements Runnable {
         JsonArray updates = new JsonArray();
         Iterator<JsonObject> it = mergedTasks.values().iterator();
         int count = CHUNK / 2;
-        while (it.hasNext() && (--count >= 0)) {
-            updates.add(it.next());
+        int bytes = 0;
+        while (it.hasNext() && (--count >= 0) && (bytes < MAX_BATCH_SIZE)) {
+            JsonObject obj = it.next();
+            bytes += estimateSize(obj);
+            updates.add(obj);
             it.remove();
         }
         it = rawTasks.iterator();
         count += (CHUNK / 2);
-        while (it.hasNext() && (--count >= 0)) {
-            updates.add(it.next());
+        while (it.hasNext() && (--count >= 0) && (bytes < MAX_BATCH_SIZE)) {
+            JsonObject obj = it.next();
+            bytes += estimateSize(obj);
+            updates.add(obj);
             it.remove();
         }
         return updates;
     }
 
+    /**
+     * Roughly estimates the encoded size of a value in bytes.
+     */
+    private static int estimateSize(Object obj) {
+        if (obj instanceof JsonObject) {
+            int size = 2;
+            for (Map.Entry<String, Object> entry : (JsonObject) obj) {
+                size += entry.getKey().length() + 4;
+                size += estimateSize(entry.getValue());
+            }
+            return size;
+        } else if (obj instanceof JsonArray) {
+            int size = 2;
+            for (Object o : (JsonArray) obj) {
+                size += estimateSize(o) + 1;
+            }
+            return size;
+        } else if (obj instanceof String) {
+            return ((String) obj).length() + 2;
+        } else if (obj instanceof byte[]) {
+            return ((byte[]) obj).length * 4 / 3 + 10;
+        }
+        return 8;
+    }
+
     /**
      * Returns the message ID.
      */
@@ -179,6 +307,10 @@ public class QueuedWriteManager implements Runnable {
         synchronized (writeMutex) {
             int msgId = tracker.incrementMessageId();
             obj.put("msg", msgId);
+            Integer ack = flow != null ? flow.takePendingAck() : null;
+            if (ack != null) {
+                obj.put("ack", ack);
+            }
             client.write(format, obj);
             return msgId;
         }
@@ -197,20 +329,36 @@ public class QueuedWriteManager implements Runnable {
         return !rawTasks.isEmpty() || !mergedTasks.isEmpty();
     }
 
-    private void schedule(long millis) {
-        if (fut != null) {
-            return;
+    /**
+     * Ensures exactly one drain task is scheduled.
+     */
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            int delay = batchDelay;
+            if (delay > 0 && open) {
+                LoopProvider.getProvider().schedule(this, delay, TimeUnit.MILLISECONDS);
+            } else {
+                LoopProvider.getProvider().schedule(this);
+            }
         }
-        fut = LoopProvider.getProvider().schedule(this, millis, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean ackWindowFull() {
+        int window = flow != null ? flow.ackWindowSize() : ACK_WINDOW;
+        return tracker.missingAckCount() > window;
     }
 
     private boolean shouldQueue() {
-        return (fut != null) || (tracker.missingAckCount() > 8) || !client.writable();
+        return ackWindowFull() || !client.writable();
     }
 
     static {
         String s = PropertyReference.DISPATCH_DELAY;
         DISPATCH_DELAY = SystemPropertyUtil.getInt(s, 10);
         LOGGER.debug("-D{}: {}", s, DISPATCH_DELAY);
+
+        s = PropertyReference.MAX_BATCH_SIZE;
+        MAX_BATCH_SIZE = SystemPropertyUtil.getInt(s, 64 * 1024);
+        LOGGER.debug("-D{}: {}", s, MAX_BATCH_SIZE);
     }
 }
@@ -1,5 +1,7 @@
 package org.dsa.iot.dslink.connection.connector;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
 import org.dsa.iot.dslink.connection.NetworkClient;
 import org.dsa.iot.dslink.connection.RemoteEndpoint;
 import org.dsa.iot.dslink.provider.WsProvider;
@@ -12,6 +14,8 @@ import org.dsa.iot.dslink.util.json.JsonObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -117,7 +121,29 @@ public class WebSocketConnector extends RemoteEndpoint {
 
         @Override
         public void onData(byte[] data, int offset, int length) {
-            JsonObject obj = new JsonObject(getFormat(), data, offset, length);
+            Handler<InputStream> raw = getOnRawData();
+            if (raw != null) {
+                raw.handle(new ByteArrayInputStream(data, offset, length));
+                return;
+            }
+            handleData(new JsonObject(getFormat(), data, offset, length));
+        }
+
+        @Override
+        public void onData(ByteBuf data) {
+            Handler<InputStream> raw = getOnRawData();
+            if (raw != null) {
+                raw.handle(new ByteBufInputStream(data.duplicate()));
+                return;
+            } else if (data.hasArray()) {
+                super.onData(data);
+                return;
+            }
+            InputStream in = new ByteBufInputStream(data.duplicate());
+            handleData(new JsonObject(getFormat(), in));
+        }
+
+        private void handleData(JsonObject obj) {
             if (obj.contains("ping")) {
                 obj.put("pong", obj.remove("ping"));
                 WebSocketConnector.this.write(getFormat(), obj);
@@ -3,8 +3,11 @@ package org.dsa.iot.dslink.handshake;
 import io.netty.util.CharsetUtil;
 import org.bouncycastle.jcajce.provider.digest.SHA256;
 import org.dsa.iot.dslink.config.Configuration;
+import org.dsa.iot.dslink.util.PropertyReference;
 import org.dsa.iot.dslink.util.StringUtils;
 import org.dsa.iot.dslink.util.UrlBase64;
+import org.dsa.iot.dslink.util.json.EncodingFormat;
+import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
 
 /**
@@ -115,19 +118,18 @@ public class LocalHandshake {
         obj.put("version", "1.0.4");
         obj.put("enableWebSocketCompression", true);
 
-        /*String formats = System.getProperty(PropertyReference.FORMATS);
+        String formats = System.getProperty(PropertyReference.FORMATS);
         String[] split = formats != null ? formats.split(",") : null;
         if (split != null && split.length > 0) {
             JsonArray array = new JsonArray();
             for (String f : split) {
-                EncodingFormat enc = EncodingFormat.toEnum(f);
+                EncodingFormat enc = EncodingFormat.toEnum(f.trim());
                 array.add(enc.toJson());
             }
             obj.put("formats", array);
         } else {
             obj.put("formats", EncodingFormat.toJsonArray());
         }
-        */
         return obj;
     }
 }
@@ -1,7 +1,5 @@
 package org.dsa.iot.dslink.link;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -36,24 +34,9 @@ public class Requester extends Linkable {
     private final AtomicInteger currentReqID = new AtomicInteger();
 
     /**
-     * Current subscription ID to send to the client
+     * Subscriptions indexed by path and sid
      */
-    private final AtomicInteger currentSubID = new AtomicInteger();
-
-    /**
-     * Mapping of path->sid
-     */
-    private final Map<String, Integer> subPaths = new ConcurrentHashMap<>();
-
-    /**
-     * Mapping of sid->path
-     */
-    private final Map<Integer, String> subSids = new ConcurrentHashMap<>();
-
-    /**
-     * Mapping of sid->handler
-     */
-    private final Map<Integer, Handler<SubscriptionValue>> subUpdates = new ConcurrentHashMap<>();
+    private final SubscriptionTable subs = new SubscriptionTable();
 
     /**
      * Mapping of rid->response
@@ -78,8 +61,8 @@ public class Requester extends Linkable {
     }
 
     /**
-     * If you need to have multiple subscriptions to the same path, use the
-     * subscriber helper.
+     * Multiple handlers can be subscribed to the same path through the
+     * requester directly, the helper is kept for compatibility.
      */
     @SuppressWarnings("unused")
     public synchronized SubscriptionHelper getSubscriptionHelper() {
@@ -89,22 +72,54 @@ public class Requester extends Linkable {
         return subscriptionHelper;
     }
 
+    /**
+     * @return Subscriptions of the requester.
+     */
+    public SubscriptionTable getSubscriptionTable() {
+        return subs;
+    }
+
+    /**
+     * @return Snapshot of the path to sid mappings.
+     */
     @SuppressWarnings("unused")
     public Map<String, Integer> getSubscriptionPaths() {
-        return Collections.unmodifiableMap(subPaths);
+        Map<String, Integer> map = new HashMap<>();
+        for (SubscriptionTable.Entry entry : subs.entries()) {
+            map.put(entry.getPath(), entry.getSid());
+        }
+        return Collections.unmodifiableMap(map);
     }
 
+    /**
+     * @return Snapshot of the sid to path mappings.
+     */
     public Map<Integer, String> getSubscriptionIDs() {
-        return Collections.unmodifiableMap(subSids);
+        Map<Integer, String> map = new HashMap<>();
+        for (SubscriptionTable.Entry entry : subs.entries()) {
+            map.put(entry.getSid(), entry.getPath());
+        }
+        return Collections.unmodifiableMap(map);
     }
 
     @SuppressWarnings("unused")
     public boolean isSubscribed(String path) {
-        return subPaths.containsKey(path);
+        path = NodeManager.normalizePath(path, true);
+        return subs.get(path) != null;
     }
 
+    /**
+     * @return Snapshot of the sid to handler mappings. Each handler
+     * notifies every local handler of its path.
+     */
     public Map<Integer, Handler<SubscriptionValue>> getSubscriptionHandlers() {
-        return Collections.unmodifiableMap(subUpdates);
+        Map<Integer, Handler<SubscriptionValue>> map = new HashMap<>();
+        for (SubscriptionTable.Entry entry : subs.entries()) {
+            if (entry.hasHandlers()) {
+                map.put(entry.getSid(), entry);
+            }
+        }
+        return Collections.unmodifiableMap(map);
     }
 
     public void subscribe(String path,
@@ -126,49 +141,40 @@ public class Requester extends Linkable {
         subscribe(new SubscribeRequest(paths), onUpdate);
     }
 
+    /**
+     * Subscribes to paths. Paths that are already subscribed are not
+     * subscribed again, the handler is silently attached to their
+     * subscription instead so every handler of a path receives its
+     * updates, starting with the current value of the path if it has one.
+     * Such a path is only subscribed again, under its existing subscription
+     * ID, when its QoS level changes. A path is always subscribed with the
+     * highest level requested by its handlers.
+     *
+     * @param req      Paths to subscribe to.
+     * @param onUpdate Handler of the updates, can be {@code null}.
+     */
     public void subscribe(SubscribeRequest req,
                           Handler<SubscriptionValue> onUpdate) {
         if (req == null) {
             throw new NullPointerException("req");
         }
         final Set<SubData> paths = req.getPaths();
-        Map<SubData, Integer> subs = new HashMap<>();
-        int min = currentSubID.getAndAdd(paths.size());
-        int max = min + paths.size();
-        Iterator<SubData> it = paths.iterator();
-        StringBuilder error = null;
-        while (min < max && it.hasNext()) {
-            try {
-                SubData data = it.next();
-                String path = data.getPath();
-                subs.put(data, min);
-                Integer prev = subPaths.put(path, min);
-                if (prev != null) {
-                    String err = "Path " + path + " already subscribed";
-                    throw new RuntimeException(err);
-                }
-                subSids.put(min, path);
-                if (onUpdate != null) {
-                    subUpdates.put(min, onUpdate);
-                }
-                min++;
-            } catch (IllegalArgumentException e) {
-                if (error == null) {
-                    error = new StringBuilder();
-                }
-                StringWriter writer = new StringWriter();
-                e.printStackTrace(new PrintWriter(writer));
-                error.append(writer.toString());
-                error.append("\n\n");
+        Map<SubData, Integer> sids = new HashMap<>();
+        for (SubData data : paths) {
+            Integer qos = data.getQos();
+            SubscriptionTable.Entry entry = subs.subscribe(data.getPath(),
+                    qos != null ? qos : 0, onUpdate);
+            if (entry != null) {
+                sids.put(new SubData(entry.getPath(), entry.getQos()), entry.getSid());
             }
         }
+        if (sids.isEmpty()) {
+            return;
+        }
 
-        req.setSubSids(subs);
+        req.setSubSids(sids);
         RequestWrapper wrapper = new RequestWrapper(req);
         sendRequest(wrapper, currentReqID.incrementAndGet());
-        if (error != null) {
-            throw new RuntimeException(error.toString());
-        }
     }
 
     public void unsubscribe(String path, Handler<UnsubscribeResponse> onResponse) {
@@ -177,27 +183,68 @@ public class Requester extends Linkable {
         unsubscribe(paths, onResponse);
     }
 
+    /**
+     * Unsubscribes from paths, regardless of how many handlers are
+     * attached to them.
+     *
+     * @param paths      Paths to unsubscribe from.
+     * @param onResponse Response handler, can be {@code null}.
+     */
     public void unsubscribe(Set<String> paths, Handler<UnsubscribeResponse> onResponse) {
         if (paths == null) {
             throw new NullPointerException("paths");
         }
-        List<Integer> subs = new ArrayList<>();
+        int generation = subs.generation();
+        List<Integer> sids = new ArrayList<>();
         for (String path : paths) {
-            //just in case...
-            if (subscriptionHelper != null) {
-                subscriptionHelper.clear(path);
-            }
             path = NodeManager.normalizePath(path, true);
-            Integer sid = subPaths.remove(path);
-            if (sid != null) {
-                subs.add(sid);
-                subSids.remove(sid);
-                subUpdates.remove(sid);
+            SubscriptionTable.Entry entry = subs.remove(path);
+            if (entry != null) {
+                sids.add(entry.getSid());
             }
         }
-        UnsubscribeRequest req = new UnsubscribeRequest(subs);
+        sendUnsubscribe(sids, generation, onResponse);
+    }
+
+    /**
+     * Detaches a handler from a path. The path is only unsubscribed once
+     * its last handler is detached, otherwise it is subscribed again if its
+     * QoS level dropped with the handler.
+     *
+     * @param path       Path to detach the handler from.
+     * @param onUpdate   Handler to detach.
+     * @param onResponse Response handler, can be {@code null}.
+     */
+    public void unsubscribe(String path,
+                            Handler<SubscriptionValue> onUpdate,
+                            Handler<UnsubscribeResponse> onResponse) {
+        path = NodeManager.normalizePath(path, true);
+        int generation = subs.generation();
+        SubscriptionTable.Entry entry = subs.unsubscribe(path, onUpdate);
+        if (entry == null) {
+            return;
+        }
+        if (entry.hasHandlers()) {
+            SubData data = new SubData(entry.getPath(), entry.getQos());
+            Map<SubData, Integer> sids = new HashMap<>();
+            sids.put(data, entry.getSid());
+            SubscribeRequest req = new SubscribeRequest(Collections.singleton(data));
+            req.setSubSids(sids);
+            sendRequest(new RequestWrapper(req), currentReqID.incrementAndGet());
+        } else {
+            List<Integer> sids = new ArrayList<>();
+            sids.add(entry.getSid());
+            sendUnsubscribe(sids, generation, onResponse);
+        }
+    }
+
+    private void sendUnsubscribe(List<Integer> sids, int generation,
+                                 Handler<UnsubscribeResponse> onResponse) {
+        UnsubscribeRequest req = new UnsubscribeRequest(sids);
         RequestWrapper wrapper = new RequestWrapper(req);
         wrapper.unsubHandler = onResponse;
+        wrapper.unsubSids = sids;
+        wrapper.unsubGeneration = generation;
         sendRequest(wrapper, currentReqID.incrementAndGet());
     }
 
@@ -423,6 +470,14 @@ public class Requester extends Linkable {
                 subResp.populate(in);
                 break;
             case "unsubscribe":
+                if (closed && wrapper.unsubSids != null) {
+                    // Nothing is sent for the sids anymore, they can be reused
+                    int[] sids = new int[wrapper.unsubSids.size()];
+                    for (int i = 0; i < sids.length; i++) {
+                        sids[i] = wrapper.unsubSids.get(i);
+                    }
+                    this.subs.release(sids, wrapper.unsubGeneration);
+                }
                 UnsubscribeResponse unsubResp = new UnsubscribeResponse(rid, link);
                 unsubResp.setError(error);
                 unsubResp.populate(in);
@@ -483,13 +538,8 @@ public class Requester extends Linkable {
      * unsubscribe to the server.
      */
     public void clearSubscriptions() {
-        subPaths.clear();
-        subSids.clear();
-        subUpdates.clear();
+        subs.clear();
         invokeResponses.clear();
-        if (subscriptionHelper != null) {
-            subscriptionHelper.clear();
-        }
     }
 
     private static class RequestWrapper {
@@ -501,6 +551,8 @@ public class Requester extends Linkable {
         private Handler<RemoveResponse> removeHandler;
         private Handler<SetResponse> setHandler;
         private Handler<UnsubscribeResponse> unsubHandler;
+        private List<Integer> unsubSids;
+        private int unsubGeneration;
 
         public RequestWrapper(Request request) {
             this.request = request;
@@ -511,7 +563,8 @@ public class Requester extends Linkable {
                     && listHandler == null
                     && removeHandler == null
                     && setHandler == null
-                    && unsubHandler == null);
+                    && unsubHandler == null
+                    && unsubSids == null);
         }
     }
 }
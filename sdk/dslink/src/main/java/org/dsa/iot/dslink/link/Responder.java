@@ -53,7 +53,8 @@ public class Responder extends Linkable {
      * Handles incoming requests
      *
      * @param in Incoming request
-     * @return Outgoing response
+     * @return Outgoing response or {@code null} if the response is written
+     * by the stream itself
      */
     public JsonObject parse(JsonObject in) {
         final Integer rid = in.get("rid");
@@ -124,7 +125,8 @@ public class Responder extends Linkable {
         }
 
         JsonObject resp = response.getJsonResponse(in);
-        if (!StreamState.CLOSED.getJsonName().equals(resp.get("stream"))) {
+        if (resp == null
+                || !StreamState.CLOSED.getJsonName().equals(resp.get("stream"))) {
             resps.put(rid, response);
         }
         return resp;
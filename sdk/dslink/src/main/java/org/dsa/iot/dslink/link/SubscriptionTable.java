@@ -0,0 +1,374 @@
+package org.dsa.iot.dslink.link;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.dsa.iot.dslink.node.value.SubscriptionValue;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Subscriptions of a requester. Entries are indexed by their subscription
+ * ID in a dense array so dispatching an update never boxes the ID or hashes
+ * anything. A path is only subscribed once on the remote endpoint and every
+ * local handler of the path is attached to the same entry. The path is
+ * subscribed with the highest QoS level requested by its handlers and a
+ * handler attached to a path that already received updates is handed the
+ * current value right away.
+ * <p>
+ * Subscription IDs are recycled, but only once the remote endpoint
+ * confirmed the unsubscription so late updates of an old subscription can
+ * never reach a new one.
+ */
+public class SubscriptionTable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionTable.class);
+
+    private final Object lock = new Object();
+    private final Map<String, Entry> paths = new ConcurrentHashMap<>();
+    private volatile Entry[] sids = new Entry[64];
+    private int[] free = new int[16];
+    private int freeCount;
+    private int nextSid;
+    private int generation;
+
+    /**
+     * @param sid Subscription ID.
+     * @return Subscription of the ID, if any.
+     */
+    public Entry get(int sid) {
+        Entry[] sids = this.sids;
+        if (sid < 0 || sid >= sids.length) {
+            return null;
+        }
+        return sids[sid];
+    }
+
+    /**
+     * @param path Subscribed path.
+     * @return Subscription of the path, if any.
+     */
+    public Entry get(String path) {
+        return paths.get(path);
+    }
+
+    /**
+     * @return Amount of subscribed paths.
+     */
+    public int size() {
+        return paths.size();
+    }
+
+    /**
+     * @return Snapshot of the subscribed paths.
+     */
+    public Entry[] entries() {
+        return paths.values().toArray(new Entry[0]);
+    }
+
+    /**
+     * Attaches a handler to the subscription of a path, creating it if
+     * the path is not subscribed yet. A handler attached to an existing
+     * subscription receives its current value, if any, before this returns.
+     *
+     * @param path    Path to subscribe to.
+     * @param qos     Requested QoS level.
+     * @param handler Handler to attach, can be {@code null}.
+     * @return The subscription if it has to be sent to the remote endpoint,
+     * which is when it was created or its QoS level changed, otherwise
+     * {@code null}.
+     */
+    Entry subscribe(String path, int qos, Handler<SubscriptionValue> handler) {
+        if (path == null) {
+            throw new NullPointerException("path");
+        }
+        Entry entry;
+        boolean attached;
+        boolean changed;
+        synchronized (lock) {
+            entry = paths.get(path);
+            if (entry == null) {
+                return create(path, qos, handler);
+            }
+            attached = entry.add(handler, qos);
+            changed = entry.updateQos();
+        }
+        if (attached) {
+            entry.sendCurrent(handler);
+        }
+        return changed ? entry : null;
+    }
+
+    // Must be called with the lock held
+    private Entry create(String path, int qos, Handler<SubscriptionValue> handler) {
+        int sid = freeCount > 0 ? free[--freeCount] : nextSid++;
+        Entry entry = new Entry(path, sid);
+        entry.add(handler, qos);
+        entry.updateQos();
+        Entry[] sids = this.sids;
+        if (sid >= sids.length) {
+            sids = Arrays.copyOf(sids, Math.max(sid + 1, sids.length << 1));
+        }
+        sids[sid] = entry;
+        paths.put(path, entry);
+        // Publishes the entry to lock-free readers
+        this.sids = sids;
+        return entry;
+    }
+
+    /**
+     * Detaches a handler from the subscription of a path.
+     *
+     * @param path    Subscribed path.
+     * @param handler Handler to detach.
+     * @return The subscription if the handler was the last one, in which
+     * case it is removed and has no handlers left, or if its QoS level
+     * dropped and it has to be sent again, otherwise {@code null}.
+     */
+    Entry unsubscribe(String path, Handler<SubscriptionValue> handler) {
+        synchronized (lock) {
+            Entry entry = paths.get(path);
+            if (entry == null || !entry.remove(handler)) {
+                return null;
+            }
+            if (entry.size() == 0) {
+                return remove(path);
+            }
+            return entry.updateQos() ? entry : null;
+        }
+    }
+
+    /**
+     * Removes the subscription of a path. Its ID is not reused until it is
+     * released.
+     *
+     * @param path Subscribed path.
+     * @return The removed subscription, if any.
+     */
+    Entry remove(String path) {
+        synchronized (lock) {
+            Entry entry = paths.remove(path);
+            if (entry != null) {
+                Entry[] sids = this.sids;
+                sids[entry.sid] = null;
+                this.sids = sids;
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * @return Generation of the IDs, which changes whenever the table is
+     * cleared.
+     */
+    int generation() {
+        synchronized (lock) {
+            return generation;
+        }
+    }
+
+    /**
+     * Allows the IDs of removed subscriptions to be reused.
+     *
+     * @param released   IDs to release.
+     * @param generation Generation the IDs were removed in.
+     */
+    void release(int[] released, int generation) {
+        synchronized (lock) {
+            if (generation != this.generation) {
+                return;
+            }
+            for (int sid : released) {
+                if (get(sid) != null) {
+                    continue;
+                }
+                if (freeCount == free.length) {
+                    free = Arrays.copyOf(free, freeCount << 1);
+                }
+                free[freeCount++] = sid;
+            }
+        }
+    }
+
+    /**
+     * Removes every subscription and starts allocating IDs from 0 again.
+     */
+    void clear() {
+        synchronized (lock) {
+            paths.clear();
+            sids = new Entry[64];
+            freeCount = 0;
+            nextSid = 0;
+            generation++;
+        }
+    }
+
+    /**
+     * A subscribed path and its local handlers. Updates are dispatched
+     * while holding the entry, which is uncontended as the updates of a
+     * subscription arrive one at a time, so a newly attached handler can
+     * be handed the current value without racing a newer one.
+     */
+    public static class Entry implements Handler<SubscriptionValue> {
+
+        private static final Handler<SubscriptionValue>[] EMPTY = newHandlers(0);
+        private static final int[] NO_LEVELS = new int[0];
+
+        private final String path;
+        private final int sid;
+        private volatile int qos;
+        private volatile Handler<SubscriptionValue>[] handlers = EMPTY;
+
+        // Guarded by the lock of the table, levels[i] is the QoS level
+        // requested by handlers[i]
+        private int[] levels = NO_LEVELS;
+        private int unhandledQos;
+
+        // Guarded by the entry
+        private SubscriptionValue current;
+
+        Entry(String path, int sid) {
+            this.path = path;
+            this.sid = sid;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public int getSid() {
+            return sid;
+        }
+
+        /**
+         * @return QoS level the path is subscribed with, which is the
+         * highest level requested by its handlers.
+         */
+        public int getQos() {
+            return qos;
+        }
+
+        /**
+         * @return Whether any handler is attached.
+         */
+        public boolean hasHandlers() {
+            return handlers.length > 0;
+        }
+
+        /**
+         * Notifies every attached handler. A failing handler does not
+         * prevent the others from being notified.
+         *
+         * @param value Update of the subscription.
+         */
+        @Override
+        public void handle(SubscriptionValue value) {
+            synchronized (this) {
+                current = value;
+                Handler<SubscriptionValue>[] handlers = this.handlers;
+                if (handlers.length == 1) {
+                    handlers[0].handle(value);
+                    return;
+                }
+                for (Handler<SubscriptionValue> handler : handlers) {
+                    try {
+                        handler.handle(value);
+                    } catch (RuntimeException e) {
+                        LOGGER.warn("Failed to handle update of {}", path, e);
+                    }
+                }
+            }
+        }
+
+        int size() {
+            return handlers.length;
+        }
+
+        /**
+         * Hands the current value to a newly attached handler.
+         *
+         * @param handler Attached handler.
+         */
+        private void sendCurrent(Handler<SubscriptionValue> handler) {
+            synchronized (this) {
+                SubscriptionValue current = this.current;
+                if (current == null) {
+                    return;
+                }
+                try {
+                    handler.handle(current);
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Failed to handle update of {}", path, e);
+                }
+            }
+        }
+
+        /**
+         * Recomputes the QoS level from the levels of the handlers.
+         *
+         * @return Whether the level changed.
+         */
+        private boolean updateQos() {
+            int qos = unhandledQos;
+            for (int level : levels) {
+                qos = Math.max(qos, level);
+            }
+            if (qos == this.qos) {
+                return false;
+            }
+            this.qos = qos;
+            return true;
+        }
+
+        /**
+         * Attaches a handler or updates the QoS level it requested if it is
+         * already attached. Subscriptions without a handler cannot be told
+         * apart, the highest level any of them requested is kept.
+         *
+         * @return Whether the handler was newly attached.
+         */
+        private boolean add(Handler<SubscriptionValue> handler, int qos) {
+            if (handler == null) {
+                unhandledQos = Math.max(unhandledQos, qos);
+                return false;
+            }
+            Handler<SubscriptionValue>[] handlers = this.handlers;
+            for (int i = 0; i < handlers.length; i++) {
+                if (handlers[i] == handler) {
+                    levels[i] = qos;
+                    return false;
+                }
+            }
+            levels = Arrays.copyOf(levels, levels.length + 1);
+            levels[levels.length - 1] = qos;
+            handlers = Arrays.copyOf(handlers, handlers.length + 1);
+            handlers[handlers.length - 1] = handler;
+            this.handlers = handlers;
+            return true;
+        }
+
+        private boolean remove(Handler<SubscriptionValue> handler) {
+            Handler<SubscriptionValue>[] handlers = this.handlers;
+            for (int i = 0; i < handlers.length; i++) {
+                if (handlers[i] == handler) {
+                    Handler<SubscriptionValue>[] copy = newHandlers(handlers.length - 1);
+                    System.arraycopy(handlers, 0, copy, 0, i);
+                    System.arraycopy(handlers, i + 1, copy, i, copy.length - i);
+                    int[] levels = new int[copy.length];
+                    System.arraycopy(this.levels, 0, levels, 0, i);
+                    System.arraycopy(this.levels, i + 1, levels, i, copy.length - i);
+                    this.levels = levels;
+                    this.handlers = copy;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static Handler<SubscriptionValue>[] newHandlers(int size) {
+            return new Handler[size];
+        }
+    }
+}
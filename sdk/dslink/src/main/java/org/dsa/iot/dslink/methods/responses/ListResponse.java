@@ -1,12 +1,16 @@
 package org.dsa.iot.dslink.methods.responses;
 
+import io.netty.util.internal.SystemPropertyUtil;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import org.dsa.iot.dslink.DSLink;
 import org.dsa.iot.dslink.methods.Response;
 import org.dsa.iot.dslink.methods.StreamState;
+import org.dsa.iot.dslink.node.MessageGenerator;
 import org.dsa.iot.dslink.node.Node;
 import org.dsa.iot.dslink.node.NodeBuilder;
 import org.dsa.iot.dslink.node.NodeListener;
@@ -21,17 +25,25 @@ import org.dsa.iot.dslink.node.actions.ResultType;
 import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.node.value.ValueType;
 import org.dsa.iot.dslink.node.value.ValueUtils;
+import org.dsa.iot.dslink.provider.LoopProvider;
+import org.dsa.iot.dslink.util.PropertyReference;
 import org.dsa.iot.dslink.util.StringUtils;
 import org.dsa.iot.dslink.util.TimeUtils;
 import org.dsa.iot.dslink.util.handler.Handler;
 import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author Samuel Grenier
  */
 public class ListResponse extends Response {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(ListResponse.class);
+    private static final int PAGE_SIZE;
+    private static final int DISPATCH_DELAY;
+
     private final DSLink link;
     private final SubscriptionManager manager;
     private final int rid;
@@ -40,6 +52,12 @@ public class ListResponse extends Response {
 
     private final Map<Node, Boolean> updates = new HashMap<>();
 
+    // Streams the children that did not fit in the initial response
+    private final Object pageLock = new Object();
+    private ChildPager pager;
+    // Updates held back until the children were sent, guarded by the page lock
+    private List<JsonObject> held;
+
     public ListResponse(DSLink link, SubscriptionManager manager,
                         int rid, Node node, String path) {
         if (link == null) {
@@ -68,7 +86,7 @@ public class ListResponse extends Response {
         resp.put("rid", getRid());
         resp.put("stream", StreamState.OPEN.getJsonName());
         resp.put("updates", updates);
-        link.getWriter().writeResponse(resp);
+        write(resp);
     }
 
     @Override
@@ -80,19 +98,77 @@ public class ListResponse extends Response {
                 node.getListener().postListClosed();
             }
         }
+        synchronized (pageLock) {
+            if (pager != null) {
+                pager.closed = true;
+                pager = null;
+            }
+            held = null;
+        }
         JsonObject resp = new JsonObject();
         resp.put("rid", getRid());
         resp.put("stream", StreamState.CLOSED.getJsonName());
         return resp;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @return The initial response or {@code null} if the children do not
+     * fit in a single page, the pager writes the initial response itself in
+     * that case.
+     */
     @Override
     public JsonObject getJsonResponse(JsonObject in) {
         JsonObject out = new JsonObject();
         out.put("rid", getRid());
         out.put("stream", StreamState.OPEN.getJsonName());
 
+        // Subscribed before the children are read so no change is missed,
+        // changes made in the meantime are held back until they are sent
+        synchronized (pageLock) {
+            held = new ArrayList<>();
+        }
+        manager.addPathSub(path, this);
+
         JsonArray updates = new JsonArray();
+        try {
+            addUpdates(updates);
+        } catch (RuntimeException e) {
+            manager.removePathSub(node);
+            synchronized (pageLock) {
+                held = null;
+            }
+            throw e;
+        }
+        out.put("updates", updates);
+
+        ChildPager pager;
+        synchronized (pageLock) {
+            pager = this.pager;
+            if (pager == null && held != null) {
+                // Sent along with the initial response
+                for (JsonObject resp : held) {
+                    JsonArray u = resp.get("updates");
+                    for (Object update : u) {
+                        updates.add(update);
+                    }
+                }
+                held = null;
+            }
+        }
+        if (pager == null) {
+            return out;
+        }
+
+        // The pager writes the initial response itself so that nothing
+        // written by the caller can come between it and the pages
+        pager.first = out;
+        LoopProvider.getProvider().schedule(pager);
+        return null;
+    }
+
+    private void addUpdates(JsonArray updates) {
         if (node == null) {
             JsonArray update = new JsonArray();
             update.add("$is").add("node");
@@ -139,8 +215,7 @@ public class ListResponse extends Response {
                 updates.add(update);
             }
 
-            char[] password = node.getPassword();
-            if (password != null) {
+            if (node.hasPassword()) {
                 JsonArray update = new JsonArray();
                 update.add("$$password");
                 update.add(null);
@@ -205,18 +280,45 @@ public class ListResponse extends Response {
             }
 
             // Children
+            link.getNodeManager().listVirtualNodes(node);
             Map<String, Node> children = node.getChildren();
             if (children != null) {
+                int count = 0;
+                List<Node> remaining = null;
                 for (Node child : children.values()) {
-                    Object update = getChildUpdate(child, false);
-                    updates.add(update);
+                    if (PAGE_SIZE > 0 && count >= PAGE_SIZE) {
+                        if (remaining == null) {
+                            remaining = new ArrayList<>();
+                        }
+                        remaining.add(child);
+                    } else {
+                        updates.add(getChildUpdate(child, false));
+                        count++;
+                    }
+                }
+                if (remaining != null) {
+                    synchronized (pageLock) {
+                        pager = new ChildPager(remaining);
+                    }
                 }
             }
         }
-        out.put("updates", updates);
+    }
 
-        manager.addPathSub(path, this);
-        return out;
+    /**
+     * Writes an update of the stream. Updates are held back while children
+     * are being read or paged so they are delivered after every child.
+     *
+     * @param resp Update to write.
+     */
+    private void write(JsonObject resp) {
+        synchronized (pageLock) {
+            if (held != null) {
+                held.add(resp);
+                return;
+            }
+        }
+        link.getWriter().writeResponse(resp);
     }
 
     /**
@@ -260,7 +362,7 @@ public class ListResponse extends Response {
         resp.put("rid", getRid());
         resp.put("stream", StreamState.OPEN.getJsonName());
         resp.put("updates", updates);
-        link.getWriter().writeResponse(resp);
+        write(resp);
     }
 
     public void multiChildrenUpdate(List<Node> children) {
@@ -274,7 +376,7 @@ public class ListResponse extends Response {
         resp.put("rid", getRid());
         resp.put("stream", StreamState.OPEN.getJsonName());
         resp.put("updates", updates);
-        link.getWriter().writeResponse(resp);
+        write(resp);
     }
 
     @Override
@@ -592,4 +694,103 @@ public class ListResponse extends Response {
             throw new RuntimeException("Unhandled update: " + in);
         }
     }
+
+    /**
+     * Writes the initial response followed by the remaining children, one
+     * page at a time. Every message of the stream goes through the pager
+     * until the last page is written, which keeps them in order. A page is
+     * only generated when the writer is idle and the ack window has room,
+     * so other streams are not stalled behind a large list.
+     */
+    private class ChildPager implements MessageGenerator, Runnable {
+
+        private final List<Node> children;
+        private volatile boolean closed;
+
+        // Only accessed by the paging task once it is scheduled
+        private JsonObject first;
+        private int index;
+        private boolean generated;
+        private boolean retry;
+
+        ChildPager(List<Node> children) {
+            this.children = children;
+        }
+
+        @Override
+        public void run() {
+            if (closed) {
+                return;
+            }
+            generated = false;
+            retry = false;
+            try {
+                link.getWriter().writeResponse(this);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Failed to write list page of {}", path, e);
+                finish();
+                return;
+            }
+            if (retry) {
+                LoopProvider.getProvider().schedule(this, DISPATCH_DELAY, TimeUnit.MILLISECONDS);
+            } else if (generated && index < children.size()) {
+                // Yields to other tasks between pages
+                LoopProvider.getProvider().schedule(this);
+            } else {
+                finish();
+            }
+        }
+
+        @Override
+        public JsonObject getMessage(int lastAckId) {
+            generated = true;
+            JsonObject first = this.first;
+            if (first != null) {
+                this.first = null;
+                return first;
+            }
+            JsonArray updates = new JsonArray();
+            int end = Math.min(children.size(), index + PAGE_SIZE);
+            for (; index < end; index++) {
+                updates.add(getChildUpdate(children.get(index), false));
+            }
+            JsonObject resp = new JsonObject();
+            resp.put("rid", getRid());
+            resp.put("stream", StreamState.OPEN.getJsonName());
+            resp.put("updates", updates);
+            return resp;
+        }
+
+        @Override
+        public void retry() {
+            retry = true;
+        }
+
+        @Override
+        public void setMessageId(int messageId) {
+        }
+
+        /**
+         * Writes the updates held back while paging.
+         */
+        private void finish() {
+            synchronized (pageLock) {
+                if (pager != this) {
+                    return;
+                }
+                pager = null;
+                for (JsonObject resp : held) {
+                    link.getWriter().writeResponse(resp);
+                }
+                held = null;
+            }
+        }
+    }
+
+    static {
+        String s = PropertyReference.LIST_PAGE_SIZE;
+        PAGE_SIZE = SystemPropertyUtil.getInt(s, 500);
+        s = PropertyReference.DISPATCH_DELAY;
+        DISPATCH_DELAY = SystemPropertyUtil.getInt(s, 10);
+    }
 }
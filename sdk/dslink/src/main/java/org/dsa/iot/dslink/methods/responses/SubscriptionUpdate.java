@@ -1,6 +1,7 @@
 package org.dsa.iot.dslink.methods.responses;
 
 import org.dsa.iot.dslink.link.Requester;
+import org.dsa.iot.dslink.link.SubscriptionTable;
 import org.dsa.iot.dslink.methods.Response;
 import org.dsa.iot.dslink.node.Node;
 import org.dsa.iot.dslink.node.NodeManager;
@@ -8,23 +9,20 @@ import org.dsa.iot.dslink.node.value.SubscriptionValue;
 import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.node.value.ValueType;
 import org.dsa.iot.dslink.node.value.ValueUtils;
-import org.dsa.iot.dslink.util.handler.Handler;
 import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
 
-import java.util.Map;
-
 /**
  * @author Samuel Grenier
  */
 public class SubscriptionUpdate extends Response {
 
-    private final Requester requester;
     private final NodeManager manager;
+    private final SubscriptionTable subs;
 
     public SubscriptionUpdate(Requester requester) {
-        this.requester = requester;
         this.manager = requester.getDSLink().getNodeManager();
+        this.subs = requester.getSubscriptionTable();
     }
 
     @Override
@@ -35,65 +33,68 @@ public class SubscriptionUpdate extends Response {
     @Override
     public void populate(JsonObject in) {
         JsonArray updates = in.get("updates");
-        Map<Integer, String> paths = requester.getSubscriptionIDs();
-        Map<Integer, Handler<SubscriptionValue>> handlers = requester.getSubscriptionHandlers();
         if (updates != null) {
             for (Object obj : updates) {
-                int rid;
-                String path;
-                Object valueObj;
-                String timestamp;
-                Number count = null;
-                Number sum = null;
-                Number min = null;
-                Number max = null;
-
                 if (obj instanceof JsonArray) {
                     JsonArray update = (JsonArray) obj;
-                    rid = update.get(0);
-                    path = paths.get(rid);
-                    valueObj = update.get(1);
-                    timestamp = update.get(2);
+                    int sid = update.get(0);
+                    Object valueObj = update.get(1);
+                    String timestamp = update.get(2);
+                    update(sid, valueObj, timestamp, null, null, null, null);
                 } else if (obj instanceof JsonObject) {
                     JsonObject update = (JsonObject) obj;
-                    rid = update.get("sid");
-                    path = paths.get(rid);
-                    valueObj = update.get("value");
-                    timestamp = update.get("ts");
-                    count = update.get("count");
-                    sum = update.get("sum");
-                    min = update.get("min");
-                    max = update.get("max");
+                    int sid = update.get("sid");
+                    Object valueObj = update.get("value");
+                    String timestamp = update.get("ts");
+                    Number count = update.get("count");
+                    Number sum = update.get("sum");
+                    Number min = update.get("min");
+                    Number max = update.get("max");
+                    update(sid, valueObj, timestamp, count, sum, min, max);
                 } else {
                     String err = "Invalid subscription update: " + in;
                     throw new RuntimeException(err);
                 }
-                if (path == null) {
-                    continue;
-                }
-
-                final Node node = manager.getNode(path, true).getNode();
-                Value val = ValueUtils.toValue(valueObj, timestamp);
-                if (val == null) {
-                    ValueType type = node.getValueType();
-                    if (type != null) {
-                        val = ValueUtils.toEmptyValue(type, timestamp);
-                    } else {
-                        continue;
-                    }
-                }
+            }
+        }
+    }
 
-                Handler<SubscriptionValue> handler = handlers.get(rid);
-                SubscriptionValue value;
-                if (handler != null) {
-                    value = new SubscriptionValue(path, val, count, sum, min, max);
-                    handler.handle(value);
-                }
+    /**
+     * Applies a single subscription update to the node it is subscribed to
+     * and notifies its handler.
+     *
+     * @param sid       Subscription ID of the update.
+     * @param valueObj  Raw value of the update.
+     * @param timestamp Timestamp of the update.
+     * @param count     Count of the update, can be {@code null}.
+     * @param sum       Sum of the update, can be {@code null}.
+     * @param min       Minimum of the update, can be {@code null}.
+     * @param max       Maximum of the update, can be {@code null}.
+     */
+    public void update(int sid, Object valueObj, String timestamp,
+                       Number count, Number sum, Number min, Number max) {
+        SubscriptionTable.Entry sub = subs.get(sid);
+        if (sub == null) {
+            return;
+        }
+        String path = sub.getPath();
 
-                node.setValueType(val.getType());
-                node.setValue(val);
+        final Node node = manager.getNode(path, true).getNode();
+        Value val = ValueUtils.toValue(valueObj, timestamp);
+        if (val == null) {
+            ValueType type = node.getValueType();
+            if (type != null) {
+                val = ValueUtils.toEmptyValue(type, timestamp);
+            } else {
+                return;
             }
         }
+
+        // Kept by the subscription for handlers attached later
+        sub.handle(new SubscriptionValue(path, val, count, sum, min, max));
+
+        node.setValueType(val.getType());
+        node.setValue(val);
     }
 
     @Override
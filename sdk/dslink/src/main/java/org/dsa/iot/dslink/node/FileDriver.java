@@ -1,16 +1,14 @@
 package org.dsa.iot.dslink.node;
 
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.netty.util.CharsetUtil;
+import io.netty.util.internal.SystemPropertyUtil;
 import java.io.File;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Map;
-import java.util.Queue;
 import org.dsa.iot.dslink.node.SubscriptionManager.Subscription;
 import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.node.value.ValueUtils;
 import org.dsa.iot.dslink.util.FileUtils;
+import org.dsa.iot.dslink.util.PropertyReference;
 import org.dsa.iot.dslink.util.StringUtils;
 import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
@@ -18,29 +16,88 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Persists the queued updates of QoS 3 subscriptions in a journal.
+ *
  * @author Samuel Grenier
  */
 class FileDriver {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FileDriver.class);
+    private static final int SEGMENT_SIZE;
 
     private final File storageDir = new File("storage");
+    private final QosJournal journal;
     private SubscriptionManager subscriptionManager;
-    private final Map<String, Queue<Value>> updatesCache = new HashMap<>();
 
     FileDriver(SubscriptionManager subscriptionManager) {
         this.subscriptionManager = subscriptionManager;
+        File dir = new File(storageDir, "journal");
+        int capacity = SubscriptionManager.QOS_QUEUE_SIZE;
+        this.journal = new QosJournal(dir, SEGMENT_SIZE, capacity);
     }
 
-    @SuppressFBWarnings("RV_RETURN_VALUE_IGNORED_BAD_PRACTICE")
-    void clear(Subscription sub) {
-        File f = new File(storageDir, sub.getPath());
-        if (f.exists()) {
-            f.delete();
+    /**
+     * Persists an update that was queued while disconnected.
+     *
+     * @param sub   Subscription the update was queued in.
+     * @param value Queued update.
+     */
+    void append(Subscription sub, Value value) {
+        String path = sub.getNodePath();
+        if (journal.contains(path)) {
+            journal.append(path, value);
+        } else {
+            // Anything queued before the first update must be persisted too
+            store(sub);
         }
     }
 
+    /**
+     * Drops the oldest persisted updates, which were acked.
+     *
+     * @param sub   Subscription the updates were queued in.
+     * @param count Amount of updates to drop.
+     */
+    void release(Subscription sub, int count) {
+        journal.release(sub.getNodePath(), count);
+    }
+
+    void clear(Subscription sub) {
+        journal.clear(sub.getNodePath());
+    }
+
+    void close() {
+        journal.close();
+    }
+
     void restore() {
+        Map<String, UpdateBuffer> restored = journal.open();
+        for (Map.Entry<String, UpdateBuffer> entry : restored.entrySet()) {
+            UpdateBuffer queue = entry.getValue();
+            if (!queue.isEmpty()) {
+                subscriptionManager.restore(entry.getKey(), queue);
+            } else {
+                // Every update was acked before the link stopped
+                journal.clear(entry.getKey());
+            }
+        }
+        restoreFiles();
+    }
+
+    /**
+     * Persists all the updates queued in the subscription.
+     *
+     * @param sub Subscription to persist.
+     */
+    void store(Subscription sub) {
+        journal.write(sub.getNodePath(), sub.getUpdates());
+    }
+
+    /**
+     * Moves subscriptions stored by previous versions, one file per path,
+     * into the journal.
+     */
+    private void restoreFiles() {
         if (!storageDir.isDirectory()) {
             return;
         }
@@ -48,7 +105,7 @@ class FileDriver {
         if (files == null) {
             return;
         }
-        Queue<Value> queue = null;
+        UpdateBuffer queue;
         for (File f : files) {
             try {
                 if (f == null || !f.getName().startsWith("%2F")) {
@@ -59,15 +116,19 @@ class FileDriver {
                 String path = StringUtils.decodeName(f.getName());
                 JsonArray jsonQueue = obj.get("queue");
                 if (jsonQueue != null) {
-                    queue = new LinkedList<Value>();
+                    queue = new UpdateBuffer(SubscriptionManager.QOS_QUEUE_SIZE);
                     for (Object o : jsonQueue) {
                         JsonArray array = (JsonArray) o;
                         queue.add(ValueUtils.toValue(array.get(0), array.get(1).toString()));
                     }
+                    journal.write(path, queue);
                 } else {
                    queue = null;
                 }
                 subscriptionManager.restore(path, queue);
+                if (!f.delete()) {
+                    LOGGER.warn("Failed to delete {}", f);
+                }
             } catch (Exception e) {
                 String path = f.getName();
                 String err = "Failed to handle QoS subscription data: {}\n{}";
@@ -76,28 +137,8 @@ class FileDriver {
         }
     }
 
-    void store(Subscription sub) {
-        if (!(storageDir.exists() || storageDir.mkdirs())) {
-            String full = storageDir.getAbsolutePath();
-            LOGGER.info("Failed to create storage directory at {}", full);
-        }
-        Queue<Value> cache = sub.getUpdates();
-        JsonObject obj = new JsonObject();
-        JsonArray queue = new JsonArray(); //backward compatible structure
-        obj.put("queue", queue);
-        obj.put("qos", sub.getQos());
-        for (Value v : cache) {
-            JsonArray array = new JsonArray();
-            array.add(v);
-            array.add(v.getTimeStamp());
-            queue.add(array);
-        }
-        File f = new File(storageDir, StringUtils.encodeName(sub.getPath()));
-        try {
-            FileUtils.write(f, obj.encode());
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    static {
+        String s = PropertyReference.QOS_SEGMENT_SIZE;
+        SEGMENT_SIZE = SystemPropertyUtil.getInt(s, 4 * 1024 * 1024);
     }
-
 }
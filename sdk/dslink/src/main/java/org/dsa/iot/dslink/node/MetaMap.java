@@ -0,0 +1,137 @@
+package org.dsa.iot.dslink.node;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.dsa.iot.dslink.node.value.Value;
+
+/**
+ * Immutable map of node metadata backed by parallel arrays. Nodes rarely
+ * hold more than a handful of configurations or attributes, so a linear
+ * scan is cheaper than hashing and the map costs a fraction of the memory
+ * of a hash map. Writes return a new map, which lets readers use it
+ * without locking.
+ */
+class MetaMap extends AbstractMap<String, Value> {
+
+    static final MetaMap EMPTY = new MetaMap(new String[0], new Value[0]);
+
+    private final String[] keys;
+    private final Value[] values;
+
+    private MetaMap(String[] keys, Value[] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    @Override
+    public Value get(Object key) {
+        int i = indexOf(key);
+        return i >= 0 ? values[i] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * @param key   Key to set.
+     * @param value Value to set.
+     * @return Map with the key set to the value.
+     */
+    MetaMap with(String key, Value value) {
+        int i = indexOf(key);
+        String[] keys;
+        Value[] values;
+        if (i >= 0) {
+            keys = this.keys;
+            values = this.values.clone();
+        } else {
+            i = this.keys.length;
+            keys = new String[i + 1];
+            values = new Value[i + 1];
+            System.arraycopy(this.keys, 0, keys, 0, i);
+            System.arraycopy(this.values, 0, values, 0, i);
+            keys[i] = key;
+        }
+        values[i] = value;
+        return new MetaMap(keys, values);
+    }
+
+    /**
+     * @param key Key to remove.
+     * @return Map without the key.
+     */
+    MetaMap without(String key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return this;
+        }
+        int length = keys.length - 1;
+        String[] keys = new String[length];
+        Value[] values = new Value[length];
+        System.arraycopy(this.keys, 0, keys, 0, i);
+        System.arraycopy(this.values, 0, values, 0, i);
+        System.arraycopy(this.keys, i + 1, keys, i, length - i);
+        System.arraycopy(this.values, i + 1, values, i, length - i);
+        return new MetaMap(keys, values);
+    }
+
+    @Override
+    public Set<Entry<String, Value>> entrySet() {
+        return new AbstractSet<Entry<String, Value>>() {
+            @Override
+            public Iterator<Entry<String, Value>> iterator() {
+                return new Iterator<Entry<String, Value>>() {
+
+                    private int index;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < keys.length;
+                    }
+
+                    @Override
+                    public Entry<String, Value> next() {
+                        if (index >= keys.length) {
+                            throw new NoSuchElementException();
+                        }
+                        int i = index++;
+                        return new SimpleImmutableEntry<>(keys[i], values[i]);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+
+    private int indexOf(Object key) {
+        if (key == null) {
+            return -1;
+        }
+        String[] keys = this.keys;
+        for (int i = 0; i < keys.length; i++) {
+            if (key.equals(keys[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
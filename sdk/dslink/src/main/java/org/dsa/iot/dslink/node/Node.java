@@ -7,12 +7,14 @@ import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.node.value.ValuePair;
 import org.dsa.iot.dslink.node.value.ValueType;
 import org.dsa.iot.dslink.serializer.SerializationManager;
+import org.dsa.iot.dslink.util.PropertyReference;
 import org.dsa.iot.dslink.util.StringUtils;
 
-import java.lang.ref.WeakReference;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
+import io.netty.util.internal.SystemPropertyUtil;
+
 /**
  * Contains information about a node and its data.
  *
@@ -24,29 +26,27 @@ public class Node {
         '%', '.', '/', '\\', '?', '*', ':', '|', '<', '>', '$', '@', ','
     };
 
-    private final Object roConfigLock = new Object();
-    private final Object configLock = new Object();
+    private static final boolean COMPACT;
 
-    private final Object attributeLock = new Object();
-    private final Object interfaceLock = new Object();
-    private final Object childrenLock = new Object();
-    private final Object passwordLock = new Object();
+    // Guards every structural write to the node
+    private final Object lock = new Object();
+    // Guards the value and its publishing, kept apart from structural writes
     private final Object valueLock = new Object();
 
-    private final WeakReference<Node> parent;
+    private final Node parent;
     private final Linkable link;
     private final String path;
     private final String name;
 
     private boolean serializable = true;
-    private Map<String, Node> children;
-    private NodeListener listener;
+    private volatile Map<String, Node> children;
+    private volatile NodeListener listener;
     private Writable writable;
     private Object metaData;
 
-    private Map<String, Value> roConfigs;
-    private Map<String, Value> configs;
-    private Map<String, Value> attribs;
+    private volatile MetaMap roConfigs;
+    private volatile MetaMap configs;
+    private volatile MetaMap attribs;
     private Boolean hasChildren;
     private boolean hidden;
 
@@ -55,11 +55,13 @@ public class Node {
 
     private String displayName;
     private String profile;
-    private Set<String> interfaces;
+    private volatile Set<String> interfaces;
     private Action action;
-    private char[] pass;
+    private volatile char[] pass;
     
     private boolean shouldPostCachedValue = true;
+    private PublishFilter publishFilter;
+    private volatile SubscriptionManager.Subscription subscription;
 
     /**
      * Constructs a node object.
@@ -73,8 +75,7 @@ public class Node {
     }
 
     public Node(String name, Node parent, Linkable link, boolean shouldEncodeName) {
-        this.parent = new WeakReference<>(parent);
-        this.listener = new NodeListener(this);
+        this.parent = parent;
         this.link = link;
         if (shouldEncodeName) {
             name = StringUtils.encodeName(name);
@@ -82,28 +83,28 @@ public class Node {
         if (name == null) {
             throw new IllegalArgumentException("name");
         }
-        if (parent != null) {
-            if (name.isEmpty()) {
-                throw new IllegalArgumentException("name");
-            }
+        if (parent != null && name.isEmpty()) {
+            throw new IllegalArgumentException("name");
+        }
+        if (COMPACT) {
+            // Sibling nodes of large plants mostly share the same names
+            this.name = name.intern();
+            this.path = null;
+        } else {
             this.name = name;
-            if (parent instanceof NodeManager.SuperRoot) {
+            if (parent == null || parent instanceof NodeManager.SuperRoot) {
                 this.path = "/" + name;
             } else {
                 this.path = parent.getPath() + "/" + name;
             }
-        } else {
-            this.path = "/" + name;
-            this.name = name;
         }
     }
 
     /**
-     * @return Parent of this node, can be null if the parent was garbage
-     *         collected or there is no parent.
+     * @return Parent of this node, can be null if there is no parent.
      */
     public Node getParent() {
-        return parent.get();
+        return parent;
     }
 
     /**
@@ -125,7 +126,42 @@ public class Node {
      * @return Formalized path of this node.
      */
     public String getPath() {
-        return path;
+        String path = this.path;
+        return path != null ? path : buildPath();
+    }
+
+    /**
+     * Derives the path from the names of the parents, which is how paths
+     * are resolved in compact mode.
+     *
+     * @return Path of the node.
+     */
+    String buildPath() {
+        int length = 0;
+        Node node = this;
+        while (true) {
+            length += node.name.length() + 1;
+            Node parent = node.parent;
+            if (parent == null || parent instanceof NodeManager.SuperRoot) {
+                break;
+            }
+            node = parent;
+        }
+        char[] chars = new char[length];
+        int pos = length;
+        node = this;
+        while (true) {
+            String name = node.name;
+            pos -= name.length();
+            name.getChars(0, name.length(), chars, pos);
+            chars[--pos] = '/';
+            Node parent = node.parent;
+            if (parent == null || parent instanceof NodeManager.SuperRoot) {
+                break;
+            }
+            node = parent;
+        }
+        return new String(chars);
     }
 
     /**
@@ -175,6 +211,26 @@ public class Node {
      * @return The node's listener.
      */
     public NodeListener getListener() {
+        NodeListener listener = this.listener;
+        if (listener == null) {
+            synchronized (lock) {
+                listener = this.listener;
+                if (listener == null) {
+                    listener = new NodeListener(this);
+                    this.listener = listener;
+                }
+            }
+        }
+        return listener;
+    }
+
+    /**
+     * Listeners are only created once requested, nothing can be listening
+     * to a node without one.
+     *
+     * @return The node's listener, if it was created.
+     */
+    NodeListener peekListener() {
         return listener;
     }
 
@@ -192,47 +248,73 @@ public class Node {
         listener.setNode(this);
     }
 
+    /**
+     * Replaces the listener with the listener of a node that was built
+     * over this one.
+     *
+     * @param listener Listener to use, can be {@code null}.
+     */
+    void replaceListener(NodeListener listener) {
+        if (listener != null) {
+            listener.setNode(this);
+        }
+        this.listener = listener;
+    }
+
     public void addInterface(String _interface) {
-        synchronized (interfaceLock) {
+        synchronized (lock) {
             if (_interface == null) {
                 throw new NullPointerException("_interface");
-            } else if (interfaces == null) {
-                interfaces = new HashSet<>();
             }
+            Set<String> interfaces = copyInterfaces();
             interfaces.add(_interface);
+            this.interfaces = Collections.unmodifiableSet(interfaces);
             markChanged();
         }
     }
 
     @SuppressWarnings("unused")
     public void removeInterface(String _interface) {
-        synchronized (interfaceLock) {
+        synchronized (lock) {
             if (_interface == null) {
                 throw new NullPointerException("_interface");
             } else if (interfaces != null) {
+                Set<String> interfaces = copyInterfaces();
                 interfaces.remove(_interface);
+                this.interfaces = Collections.unmodifiableSet(interfaces);
                 markChanged();
             }
         }
     }
 
     public void setInterfaces(String interfaces) {
-        synchronized (interfaceLock) {
+        synchronized (lock) {
             if (interfaces == null) {
                 this.interfaces = null;
                 return;
-            } else if (this.interfaces == null) {
-                this.interfaces = new HashSet<>();
             }
+            Set<String> set = copyInterfaces();
             String[] split = interfaces.split("\\|");
-            Collections.addAll(this.interfaces, split);
+            Collections.addAll(set, split);
+            this.interfaces = Collections.unmodifiableSet(set);
             markChanged();
         }
     }
 
+    /**
+     * @return The interfaces of the node. The set is an immutable snapshot,
+     * later changes to the interfaces replace it.
+     */
     public Set<String> getInterfaces() {
-        Set<String> i = this.interfaces;
-        return i != null ? Collections.unmodifiableSet(i) : null;
+        return interfaces;
+    }
+
+    private Set<String> copyInterfaces() {
+        Set<String> interfaces = this.interfaces;
+        if (interfaces == null) {
+            return new HashSet<>();
+        }
+        return new HashSet<>(interfaces);
     }
 
     public void setValue(Value value) {
@@ -277,7 +359,8 @@ public class Node {
         synchronized (valueLock) {
             pair = new ValuePair(this.value, value, externalSource);
         }
-        if (listener.postValueUpdate(pair)) {
+        NodeListener listener = this.listener;
+        if (listener != null && listener.postValueUpdate(pair)) {
             return false;
         }
         value = pair.getCurrent();
@@ -318,12 +401,16 @@ public class Node {
         synchronized (valueLock) {
             Value prev = this.value;
             this.value = value;
-            if ((prev != null && prev.isSerializable())
+            PublishFilter filter = publishFilter;
+            if (filter != null && filter.isUnchanged(prev, value)) {
+                // Nothing to serialize
+            } else if ((prev != null && prev.isSerializable())
                     || (value != null && value.isSerializable())
                     || (prev == null && value == null)) {
                 markChanged();
             }
-            if (publish && link != null) {
+            if (publish && link != null
+                    && (filter == null || filter.accept(value))) {
                 SubscriptionManager manager = link.getSubscriptionManager();
                 if (manager != null) {
                     manager.postValueUpdate(this);
@@ -333,6 +420,63 @@ public class Node {
         return true;
     }
 
+    /**
+     * Sets which value updates of the node are published to subscribers.
+     *
+     * @param policy Policy to apply, {@code null} publishes every update.
+     */
+    public void setPublishPolicy(PublishPolicy policy) {
+        synchronized (valueLock) {
+            if (policy == null) {
+                publishFilter = null;
+            } else {
+                publishFilter = new PublishFilter(this, policy.copy());
+            }
+        }
+    }
+
+    /**
+     * @return Copy of the publish policy of the node, if any.
+     */
+    public PublishPolicy getPublishPolicy() {
+        PublishFilter filter = publishFilter;
+        return filter != null ? filter.getPolicy().copy() : null;
+    }
+
+    /**
+     * Tests whether an update that is published without being set as the
+     * value passes the publish policy.
+     *
+     * @param value Update to publish.
+     * @return Whether the update should be published.
+     */
+    boolean acceptPublish(Value value) {
+        synchronized (valueLock) {
+            PublishFilter filter = publishFilter;
+            return filter == null || filter.accept(value);
+        }
+    }
+
+    /**
+     * Publishes the current value once the minimum publish interval
+     * passed.
+     */
+    void publishPending() {
+        synchronized (valueLock) {
+            PublishFilter filter = publishFilter;
+            if (filter == null) {
+                return;
+            }
+            filter.onFlush();
+            if (link != null && filter.accept(value)) {
+                SubscriptionManager manager = link.getSubscriptionManager();
+                if (manager != null) {
+                    manager.postValueUpdate(this);
+                }
+            }
+        }
+    }
+
     /**
      * @return The value of the node.
      */
@@ -404,7 +548,7 @@ public class Node {
      */
     @SuppressWarnings("unused")
     public void clearChildren() {
-        synchronized (childrenLock) {
+        synchronized (lock) {
             if (children != null) {
                 Map<String, Node> children = getChildren();
                 for (Node child : children.values()) {
@@ -491,7 +635,7 @@ public class Node {
      * @return The node
      */
     public Node addChild(Node node) {
-        synchronized (childrenLock) {
+        synchronized (lock) {
             String name = node.getName();
             maybeInitializeChildren();
             if (children.containsKey(name)) {
@@ -508,6 +652,7 @@ public class Node {
             }
             children.put(name, node);
             if (manager != null) {
+                manager.bind(node);
                 manager.postChildUpdate(node, false);
             }
             if (node.isSerializable()) {
@@ -528,7 +673,7 @@ public class Node {
         }
         boolean reserialize = false;
 
-        synchronized (childrenLock) {
+        synchronized (lock) {
             for (Node node : nodes) {
                 String name = node.getName();
                 maybeInitializeChildren();
@@ -538,6 +683,9 @@ public class Node {
 
                 node.maybeInitializeProfile(profile);
                 children.put(name, node);
+                if (manager != null) {
+                    manager.bind(node);
+                }
 
                 if (node.isSerializable()) {
                     reserialize = true;
@@ -615,7 +763,7 @@ public class Node {
     }
 
     public Node removeChild(String name, boolean encodeName) {
-        synchronized (childrenLock) {
+        synchronized (lock) {
             if (encodeName) {
                 name = StringUtils.encodeName(name);
             }
@@ -626,8 +774,12 @@ public class Node {
             }
 
             if (child != null) {
-                child.getListener().postNodeRemoved();
-                child.getListener().kill();
+                NodeManager.invalidate(this);
+                NodeListener listener = child.listener;
+                if (listener != null) {
+                    listener.postNodeRemoved();
+                    listener.kill();
+                }
 
                 if (manager != null) {
                     manager.postChildUpdate(child, true);
@@ -671,8 +823,7 @@ public class Node {
      * @return The configurations in this node.
      */
     public Map<String, Value> getConfigurations() {
-        Map<String, Value> c = this.configs;
-        return c != null ? Collections.unmodifiableMap(c) : null;
+        return configs;
     }
 
     /**
@@ -695,8 +846,12 @@ public class Node {
     public Value removeConfig(String name) {
         name = StringUtils.encodeName(name);
         Value ret;
-        synchronized (configLock) {
-            ret = configs != null ? configs.remove(name) : null;
+        synchronized (lock) {
+            MetaMap map = configs;
+            ret = map != null ? map.get(name) : null;
+            if (ret != null) {
+                configs = map.without(name);
+            }
         }
         postRemoval("$", name, ret);
         return ret;
@@ -709,12 +864,12 @@ public class Node {
      */
     public Map<String, Value> clearConfigs() {
         Map<String, Value> configs;
-        synchronized (configLock) {
+        synchronized (lock) {
             if (this.configs == null) {
                 return null;
             }
             configs = new HashMap<>(this.configs);
-            this.configs.clear();
+            this.configs = MetaMap.EMPTY;
         }
         for (Map.Entry<String, Value> entry : configs.entrySet()) {
             postRemoval("$", entry.getKey(), entry.getValue());
@@ -733,12 +888,10 @@ public class Node {
      * @see Action
      */
     public Value setConfig(String name, Value value) {
-        synchronized (configLock) {
+        synchronized (lock) {
             name = checkAndEncodeName(name);
             if (value == null) {
                 throw new NullPointerException("value");
-            } else if (configs == null) {
-                configs = new ConcurrentHashMap<>();
             }
             switch (name) {
                 case "params":
@@ -757,9 +910,9 @@ public class Node {
                     throw new IllegalArgumentException(err);
             }
             value.setImmutable();
-            ValueUpdate update = new ValueUpdate(name, value, false);
             NodeListener listener = this.listener;
             if (listener != null) {
+                ValueUpdate update = new ValueUpdate(name, value, false);
                 listener.postConfigUpdate(update);
             }
 
@@ -769,7 +922,9 @@ public class Node {
             }
 
             markChanged();
-            return configs.put(name, value);
+            MetaMap map = configs != null ? configs : MetaMap.EMPTY;
+            configs = map.with(name, value);
+            return map.get(name);
         }
     }
 
@@ -777,8 +932,7 @@ public class Node {
      * @return The read-only configurations in this node.
      */
     public Map<String, Value> getRoConfigurations() {
-        Map<String, Value> c = this.roConfigs;
-        return c != null ? Collections.unmodifiableMap(c) : null;
+        return roConfigs;
     }
 
     /**
@@ -790,8 +944,12 @@ public class Node {
     public Value removeRoConfig(String name) {
         name = StringUtils.encodeName(name);
         Value ret;
-        synchronized (roConfigLock) {
-            ret = roConfigs != null ? roConfigs.remove(name) : null;
+        synchronized (lock) {
+            MetaMap map = roConfigs;
+            ret = map != null ? map.get(name) : null;
+            if (ret != null) {
+                roConfigs = map.without(name);
+            }
         }
         postRemoval("$$", name, ret);
         return ret;
@@ -804,12 +962,12 @@ public class Node {
      */
     public Map<String, Value> clearRoConfigs() {
         Map<String, Value> roConfigs;
-        synchronized (roConfigLock) {
+        synchronized (lock) {
             if (this.roConfigs == null) {
                 return null;
             }
             roConfigs = new HashMap<>(this.roConfigs);
-            this.roConfigs.clear();
+            this.roConfigs = MetaMap.EMPTY;
         }
         for (Map.Entry<String, Value> entry : roConfigs.entrySet()) {
             postRemoval("$$", entry.getKey(), entry.getValue());
@@ -841,12 +999,10 @@ public class Node {
      * @return The previous value, if any.
      */
     public Value setRoConfig(String name, Value value) {
-        synchronized (roConfigLock) {
+        synchronized (lock) {
             name = checkAndEncodeName(name);
             if (value == null) {
                 throw new NullPointerException("value");
-            } else if (roConfigs == null) {
-                roConfigs = new ConcurrentHashMap<>();
             }
 
             switch (name) {
@@ -862,7 +1018,9 @@ public class Node {
             }
 
             markChanged();
-            return roConfigs.put(name, value);
+            MetaMap map = roConfigs != null ? roConfigs : MetaMap.EMPTY;
+            roConfigs = map.with(name, value);
+            return map.get(name);
         }
     }
 
@@ -870,8 +1028,7 @@ public class Node {
      * @return The attributes in this node.
      */
     public Map<String, Value> getAttributes() {
-        Map<String, Value> a = attribs;
-        return a != null ? Collections.unmodifiableMap(a) : null;
+        return attribs;
     }
 
     /**
@@ -894,8 +1051,12 @@ public class Node {
     public Value removeAttribute(String name) {
         name = StringUtils.encodeName(name);
         Value ret;
-        synchronized (attributeLock) {
-            ret = attribs != null ? attribs.remove(name) : null;
+        synchronized (lock) {
+            MetaMap map = attribs;
+            ret = map != null ? map.get(name) : null;
+            if (ret != null) {
+                attribs = map.without(name);
+            }
         }
         postRemoval("@", name, ret);
         return ret;
@@ -908,12 +1069,12 @@ public class Node {
      */
     public Map<String, Value> clearAttributes() {
         Map<String, Value> attribs;
-        synchronized (attributeLock) {
+        synchronized (lock) {
             if (this.attribs == null) {
                 return null;
             }
             attribs = new HashMap<>(this.attribs);
-            this.attribs.clear();
+            this.attribs = MetaMap.EMPTY;
         }
         for (Map.Entry<String, Value> entry : attribs.entrySet()) {
             postRemoval("@", entry.getKey(), entry.getValue());
@@ -927,16 +1088,17 @@ public class Node {
      * @return The previous attribute value, if any
      */
     public Value setAttribute(String name, Value value) {
-        synchronized (attributeLock) {
+        synchronized (lock) {
             name = checkAndEncodeName(name);
             if (value == null) {
                 throw new NullPointerException("value");
-            } else if (attribs == null) {
-                attribs = new ConcurrentHashMap<>();
             }
             value.setImmutable();
-            ValueUpdate update = new ValueUpdate(name, value, false);
-            listener.postAttributeUpdate(update);
+            NodeListener listener = this.listener;
+            if (listener != null) {
+                ValueUpdate update = new ValueUpdate(name, value, false);
+                listener.postAttributeUpdate(update);
+            }
 
             SubscriptionManager man = link.getSubscriptionManager();
             if (man != null) {
@@ -944,7 +1106,9 @@ public class Node {
             }
 
             markChanged();
-            return attribs.put(name, value);
+            MetaMap map = attribs != null ? attribs : MetaMap.EMPTY;
+            attribs = map.with(name, value);
+            return map.get(name);
         }
     }
 
@@ -988,9 +1152,15 @@ public class Node {
      * @return Password the node is configured to use.
      */
     public char[] getPassword() {
-        synchronized (passwordLock) {
-            return pass != null ? pass.clone() : null;
-        }
+        char[] pass = this.pass;
+        return pass != null ? pass.clone() : null;
+    }
+
+    /**
+     * @return Whether a password is set, without copying it.
+     */
+    public boolean hasPassword() {
+        return pass != null;
     }
 
     /**
@@ -1001,7 +1171,7 @@ public class Node {
      * @param password Password to set.
      */
     public void setPassword(char[] password) {
-        synchronized (passwordLock) {
+        synchronized (lock) {
             this.pass = password != null ? password.clone() : null;
             markChanged();
         }
@@ -1141,11 +1311,14 @@ public class Node {
             return;
         }
 
-        ValueUpdate update = new ValueUpdate(name, value, true);
-        if ("$".equals(prefix)) {
-            listener.postConfigUpdate(update);
-        } else if ("@".equals(prefix)) {
-            listener.postAttributeUpdate(update);
+        NodeListener listener = this.listener;
+        if (listener != null) {
+            ValueUpdate update = new ValueUpdate(name, value, true);
+            if ("$".equals(prefix)) {
+                listener.postConfigUpdate(update);
+            } else if ("@".equals(prefix)) {
+                listener.postAttributeUpdate(update);
+            }
         }
 
         SubscriptionManager man = link.getSubscriptionManager();
@@ -1156,6 +1329,57 @@ public class Node {
         markChanged();
     }
 
+    /**
+     * @return Value subscription bound to this node, can be null.
+     */
+    SubscriptionManager.Subscription getSubscription() {
+        return subscription;
+    }
+
+    /**
+     * @param sub Value subscription to bind to this node.
+     */
+    void setSubscription(SubscriptionManager.Subscription sub) {
+        this.subscription = sub;
+    }
+
+    /**
+     * Removes a child that is neither subscribed nor listed. The lock of
+     * this node is taken before the lock of the child's subscriptions, in
+     * the same order as {@link #removeChild(String, boolean)}, so a
+     * subscription made concurrently is never removed along with the child.
+     *
+     * @param child Child to remove.
+     * @return Whether the child was removed.
+     */
+    boolean removeUnusedChild(Node child) {
+        synchronized (lock) {
+            if (children == null || children.get(child.getName()) != child) {
+                return false;
+            }
+            SubscriptionManager manager = null;
+            if (link != null) {
+                manager = link.getSubscriptionManager();
+            }
+            if (manager != null) {
+                return manager.removeUnused(child);
+            }
+            removeChild(child, false);
+            return true;
+        }
+    }
+
+    /**
+     * Unbinds the value subscription if it is still bound to this node.
+     *
+     * @param sub Value subscription to unbind.
+     */
+    void unbindSubscription(SubscriptionManager.Subscription sub) {
+        if (sub != null && subscription == sub) {
+            subscription = null;
+        }
+    }
+
     /**
      * Checks the string and then returns it. An exception is thrown if the
      * name is invalid in any way.
@@ -1176,4 +1400,9 @@ public class Node {
     public static char[] getBannedCharacters() {
         return BANNED_CHARS.clone();
     }
+
+    static {
+        String s = PropertyReference.COMPACT_NODES;
+        COMPACT = SystemPropertyUtil.getBoolean(s, false);
+    }
 }
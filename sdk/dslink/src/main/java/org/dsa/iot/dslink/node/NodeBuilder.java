@@ -102,6 +102,11 @@ public class NodeBuilder {
         return this;
     }
 
+    public NodeBuilder setPublishPolicy(PublishPolicy policy) {
+        child.setPublishPolicy(policy);
+        return this;
+    }
+
     public NodeListener getListener() {
         return child.getListener();
     }
@@ -143,9 +148,12 @@ public class NodeBuilder {
                 node.setAction(child.getAction());
             }
         }
-        node.setListener(child.getListener());
+        if (node != child) {
+            node.replaceListener(child.peekListener());
+        }
         node.setDisplayName(child.getDisplayName());
         node.setValueType(child.getValueType());
+        node.setPublishPolicy(child.getPublishPolicy());
         node.setValue(child.getValue());
         node.setPassword(child.getPassword());
         node.setWritable(child.getWritable());
@@ -5,6 +5,8 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.dsa.iot.dslink.DSLinkHandler;
 import org.dsa.iot.dslink.link.Linkable;
 import org.dsa.iot.dslink.methods.StreamState;
@@ -16,8 +18,10 @@ import org.dsa.iot.dslink.node.actions.table.Table;
 import org.dsa.iot.dslink.node.exceptions.NoSuchPathException;
 import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.util.PropertyReference;
 import org.dsa.iot.dslink.util.StringUtils;
 import org.dsa.iot.dslink.util.handler.Handler;
+import io.netty.util.internal.SystemPropertyUtil;
 
 /**
  * Handles nodes based on paths.
@@ -26,13 +30,27 @@ import org.dsa.iot.dslink.util.handler.Handler;
  */
 public class NodeManager {
 
+    private static final int CACHE_SIZE;
+    private static final int VIRTUAL_NODE_LIMIT;
+
     // Fake root to provide a listing on "/"
     private final Node superRoot;
     private final String defaultProfile;
 
+    // Resolved request paths, only valid within the same generation
+    private final Map<String, CachedPair> cache;
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private final VirtualNodes virtualNodes = new VirtualNodes(VIRTUAL_NODE_LIMIT);
+
     public NodeManager(Linkable link, String defaultProfile) {
-        this.superRoot = new SuperRoot(link, defaultProfile);
+        this.superRoot = new SuperRoot(this, link, defaultProfile);
         this.defaultProfile = defaultProfile;
+        if (CACHE_SIZE > 0) {
+            this.cache = new ConcurrentHashMap<>();
+        } else {
+            this.cache = null;
+        }
     }
 
     public NodeBuilder createRootNode(String name) {
@@ -49,6 +67,42 @@ public class NodeManager {
         return superRoot;
     }
 
+    /**
+     * Sets the provider that materializes the descendants of a node on
+     * demand. Requested descendants that do not exist are created through
+     * the provider, and listing a descendant lets the provider add its
+     * children first.
+     *
+     * @param node     Node whose descendants are provided.
+     * @param provider Provider to set, {@code null} removes it.
+     */
+    public void setVirtualNodeProvider(Node node, VirtualNodeProvider provider) {
+        if (node == null) {
+            throw new NullPointerException("node");
+        }
+        virtualNodes.setProvider(node, provider);
+    }
+
+    /**
+     * @param node Node to get the provider of.
+     * @return Provider of the node or of its closest ancestor, if any.
+     */
+    public VirtualNodeProvider getVirtualNodeProvider(Node node) {
+        return virtualNodes.getProvider(node);
+    }
+
+    /**
+     * Lets the virtual node provider of a node, if any, add its children
+     * before the node is listed.
+     *
+     * @param node Node being listed.
+     */
+    public void listVirtualNodes(Node node) {
+        if (node != null && !virtualNodes.isEmpty()) {
+            virtualNodes.list(node);
+        }
+    }
+
     public Map<String, Node> getChildren(String path) {
         Node child = getNode(path).getNode();
         if (child == null)
@@ -65,39 +119,133 @@ public class NodeManager {
     }
 
     public NodePair getNode(String path, boolean create, boolean willThrow) {
+        NodePair pair = lookup(path, create, true);
+        if (pair == null) {
+            if (willThrow) {
+                throw new NoSuchPathException(path);
+            }
+            return new NodePair(null, null);
+        }
+        return pair;
+    }
+
+    /**
+     * Gets a node that is already in the tree. Virtual nodes are neither
+     * materialized nor marked as used, which makes it safe to call while
+     * holding locks.
+     *
+     * @param path Path of the node.
+     * @return The node, or {@code null} if it is not in the tree.
+     */
+    Node peekNode(String path) {
+        NodePair pair = lookup(path, false, false);
+        return pair != null ? pair.getNode() : null;
+    }
+
+    private NodePair lookup(String path, boolean create, boolean virtual) {
         if (path == null)
             throw new NullPointerException("path");
         else if ("/".equals(path))
             return new NodePair(superRoot, null);
-        String[] parts = splitPath(path);
-        if (parts.length == 1 && StringUtils.isReference(parts[0])) {
-            return new NodePair(superRoot, parts[0]);
+
+        virtual &= !virtualNodes.isEmpty();
+        Map<String, CachedPair> cache = this.cache;
+        int generation = this.generation.get();
+        if (cache != null) {
+            CachedPair cached = cache.get(path);
+            if (cached != null && cached.generation == generation) {
+                if (virtual) {
+                    virtualNodes.touch(cached.pair.getNode());
+                }
+                return cached.pair;
+            }
         }
-        Node current = superRoot.getChild(parts[0], false);
-        if (create && current == null) {
-            NodeBuilder b = superRoot.createChild(parts[0], false);
-            b.setProfile(defaultProfile);
-            current = b.build();
+
+        NodePair pair = resolve(path, create, virtual);
+        if (pair == null) {
+            return null;
+        }
+        if (cache != null) {
+            if (cache.size() >= CACHE_SIZE) {
+                cache.clear();
+            }
+            cache.put(path, new CachedPair(pair, generation));
         }
-        for (int i = 1; i < parts.length; i++) {
-            if (current == null) {
-                break;
-            } else if (i + 1 == parts.length && StringUtils.isReference(parts[i])) {
-                return new NodePair(current, parts[i]);
-            } else {
-                Node temp = current.getChild(parts[i], false);
-                if (create && temp == null) {
-                    NodeBuilder b = current.createChild(parts[i], false);
-                    b.setProfile(defaultProfile);
-                    temp = b.build();
+        return pair;
+    }
+
+    /**
+     * Resolves a path by scanning it once, without normalizing or
+     * splitting it first.
+     *
+     * @param path    Path to resolve.
+     * @param create  Whether to create missing nodes.
+     * @param virtual Whether to materialize missing virtual nodes.
+     * @return The resolved pair, or {@code null} if a node is missing.
+     */
+    private NodePair resolve(String path, boolean create, boolean virtual) {
+        if (path.isEmpty())
+            throw new IllegalArgumentException("path null or empty");
+        else if (path.contains("//"))
+            throw new IllegalArgumentException("path contains //");
+
+        int end = path.length();
+        if (path.charAt(end - 1) == '/') {
+            end--;
+        }
+        int start = path.charAt(0) == '/' ? 1 : 0;
+        Node current = superRoot;
+        while (true) {
+            int slash = path.indexOf('/', start);
+            if (slash < 0 || slash > end) {
+                slash = end;
+            }
+            String name = path.substring(start, slash);
+            boolean last = slash == end;
+            if (last && StringUtils.isReference(name)) {
+                return new NodePair(current, name);
+            }
+            Node child = current.getChild(name, false);
+            if (virtual) {
+                if (child == null) {
+                    child = virtualNodes.materialize(current, name);
+                } else {
+                    virtualNodes.touch(child);
                 }
-                current = temp;
             }
+            if (create && child == null) {
+                NodeBuilder b = current.createChild(name, false);
+                b.setProfile(defaultProfile);
+                child = b.build();
+            }
+            if (child == null) {
+                return null;
+            } else if (last) {
+                return new NodePair(child, null);
+            }
+            current = child;
+            start = slash + 1;
         }
-        if (current == null && willThrow) {
-            throw new NoSuchPathException(path);
+    }
+
+    /**
+     * Invalidates the resolved paths of the tree a node belongs to. Called
+     * whenever a node is removed.
+     *
+     * @param node Any node of the tree.
+     */
+    static void invalidate(Node node) {
+        Node root = node;
+        Node parent;
+        while ((parent = root.getParent()) != null) {
+            root = parent;
+        }
+        if (root instanceof SuperRoot) {
+            NodeManager manager = ((SuperRoot) root).manager;
+            if (manager != null) {
+                manager.generation.incrementAndGet();
+            }
         }
-        return new NodePair(current, null);
     }
 
     public static String[] splitPath(String path) {
@@ -131,8 +279,11 @@ public class NodeManager {
     public static class SuperRoot extends Node {
         private static final String ICON = "Icon";
 
-        private SuperRoot(Linkable link, String profile) {
+        private final NodeManager manager;
+
+        private SuperRoot(NodeManager manager, Linkable link, String profile) {
             super("", null, link);
+            this.manager = manager;
             super.setProfile(profile);
             //sys is needed for the getIcon action
             Node sysNode = createChild("sys")
@@ -167,4 +318,21 @@ public class NodeManager {
         }
     }
 
+    private static class CachedPair {
+
+        private final NodePair pair;
+        private final int generation;
+
+        CachedPair(NodePair pair, int generation) {
+            this.pair = pair;
+            this.generation = generation;
+        }
+    }
+
+    static {
+        String s = PropertyReference.NODE_CACHE_SIZE;
+        CACHE_SIZE = SystemPropertyUtil.getInt(s, 4096);
+        s = PropertyReference.VIRTUAL_NODE_LIMIT;
+        VIRTUAL_NODE_LIMIT = SystemPropertyUtil.getInt(s, 10000);
+    }
 }
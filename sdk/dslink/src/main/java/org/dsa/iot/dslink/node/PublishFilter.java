@@ -0,0 +1,103 @@
+package org.dsa.iot.dslink.node;
+
+import java.util.concurrent.TimeUnit;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.provider.LoopProvider;
+
+/**
+ * Applies the publish policy of a node to its value updates. Callers
+ * must hold the value lock of the node.
+ */
+class PublishFilter implements Runnable {
+
+    private final Node node;
+    private final PublishPolicy policy;
+    private final long minInterval;
+    private Value last;
+    private boolean published;
+    private long lastTime;
+    private boolean scheduled;
+
+    PublishFilter(Node node, PublishPolicy policy) {
+        this.node = node;
+        this.policy = policy;
+        this.minInterval = TimeUnit.MILLISECONDS.toNanos(policy.getMinInterval());
+    }
+
+    PublishPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @param value Update to publish.
+     * @return Whether the update should be published now.
+     */
+    boolean accept(Value value) {
+        if (published && filtered(value)) {
+            return false;
+        }
+        if (minInterval > 0) {
+            long now = System.nanoTime();
+            long wait = lastTime + minInterval - now;
+            if (published && wait > 0) {
+                if (!scheduled) {
+                    scheduled = true;
+                    LoopProvider.getProvider().schedule(this, wait, TimeUnit.NANOSECONDS);
+                }
+                return false;
+            }
+            lastTime = now;
+        }
+        published = true;
+        last = value;
+        return true;
+    }
+
+    /**
+     * @return Whether the values are equal, which does not include their
+     * time.
+     */
+    boolean isUnchanged(Value prev, Value value) {
+        if (!policy.isSuppressUnchanged()) {
+            return false;
+        } else if (prev == null || value == null) {
+            return prev == value;
+        } else if (ValueType.BINARY.compare(value.getType())) {
+            return false;
+        }
+        return prev.equals(value);
+    }
+
+    @Override
+    public void run() {
+        node.publishPending();
+    }
+
+    /**
+     * Called by the node before publishing the value held back by the
+     * minimum interval.
+     */
+    void onFlush() {
+        scheduled = false;
+    }
+
+    private boolean filtered(Value value) {
+        if (isUnchanged(last, value)) {
+            return true;
+        }
+        double deadband = policy.getDeadband();
+        if (deadband <= 0 || last == null || value == null) {
+            return false;
+        }
+        double prev = last.getDouble();
+        double cur = value.getDouble();
+        if (Double.isNaN(prev) || Double.isNaN(cur)) {
+            return false;
+        }
+        if (policy.isPercentDeadband()) {
+            deadband = Math.abs(prev) * deadband / 100;
+        }
+        return Math.abs(cur - prev) <= deadband;
+    }
+}
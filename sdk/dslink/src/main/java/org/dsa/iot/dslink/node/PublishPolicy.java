@@ -0,0 +1,116 @@
+package org.dsa.iot.dslink.node;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Determines which value updates of a node are published to subscribers.
+ * Updates that are filtered out still become the value of the node, they
+ * are only not sent over the network. A node copies the policy when it is
+ * set so later changes to the policy do not affect it.
+ */
+public class PublishPolicy {
+
+    private boolean suppressUnchanged;
+    private double deadband;
+    private boolean percentDeadband;
+    private long minInterval;
+
+    /**
+     * @param suppress Whether updates that are equal to the last published
+     *                 value are not published.
+     * @return Current object for daisy chaining.
+     */
+    public PublishPolicy setSuppressUnchanged(boolean suppress) {
+        this.suppressUnchanged = suppress;
+        return this;
+    }
+
+    public boolean isSuppressUnchanged() {
+        return suppressUnchanged;
+    }
+
+    /**
+     * Numeric updates are only published when they differ from the last
+     * published value by more than the deadband.
+     *
+     * @param deadband Absolute deadband, 0 to disable it.
+     * @return Current object for daisy chaining.
+     */
+    public PublishPolicy setDeadband(double deadband) {
+        if (deadband < 0) {
+            throw new IllegalArgumentException("deadband < 0");
+        }
+        this.deadband = deadband;
+        this.percentDeadband = false;
+        return this;
+    }
+
+    /**
+     * Numeric updates are only published when they differ from the last
+     * published value by more than the percentage of that value.
+     *
+     * @param percent Deadband in percent, 0 to disable it.
+     * @return Current object for daisy chaining.
+     */
+    public PublishPolicy setPercentDeadband(double percent) {
+        if (percent < 0) {
+            throw new IllegalArgumentException("percent < 0");
+        }
+        this.deadband = percent;
+        this.percentDeadband = true;
+        return this;
+    }
+
+    /**
+     * @return Deadband of the policy, see {@link #isPercentDeadband()}.
+     */
+    public double getDeadband() {
+        return deadband;
+    }
+
+    /**
+     * @return Whether the deadband is a percentage.
+     */
+    public boolean isPercentDeadband() {
+        return percentDeadband;
+    }
+
+    /**
+     * Updates that arrive sooner than the interval after the last published
+     * update are held back. Once the interval passed, the value of the node
+     * at that time is published so the latest update always wins.
+     *
+     * @param interval Minimum interval between published updates, 0 to
+     *                 disable it.
+     * @param unit     Unit of the interval.
+     * @return Current object for daisy chaining.
+     */
+    public PublishPolicy setMinInterval(long interval, TimeUnit unit) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("interval < 0");
+        } else if (unit == null) {
+            throw new NullPointerException("unit");
+        }
+        this.minInterval = unit.toMillis(interval);
+        return this;
+    }
+
+    /**
+     * @return Minimum interval between published updates in milliseconds.
+     */
+    public long getMinInterval() {
+        return minInterval;
+    }
+
+    /**
+     * @return Copy of the policy.
+     */
+    PublishPolicy copy() {
+        PublishPolicy policy = new PublishPolicy();
+        policy.suppressUnchanged = suppressUnchanged;
+        policy.deadband = deadband;
+        policy.percentDeadband = percentDeadband;
+        policy.minInterval = minInterval;
+        return policy;
+    }
+}
@@ -0,0 +1,683 @@
+package org.dsa.iot.dslink.node;
+
+import io.netty.util.CharsetUtil;
+import io.netty.util.internal.PlatformDependent;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueUtils;
+import org.dsa.iot.dslink.util.json.EncodingFormat;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of queued QoS 3 updates shared by all durable
+ * subscriptions. Records are appended to fixed size memory-mapped
+ * segments and each record is protected by a CRC so a torn write at the
+ * end of a segment is detected and dropped when the journal is replayed.
+ * <p>
+ * Updates belong to a stream per subscribed path. Clearing a stream or
+ * releasing its oldest updates only appends a marker; once no stream has
+ * updates left the segments are deleted. When a new segment is needed and
+ * less than half of the journal is still live, the live records are copied
+ * into new segments instead.
+ * <p>
+ * Record layout: {@code int length, int crc, byte type, payload}.
+ */
+class QosJournal {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QosJournal.class);
+
+    private static final String SUFFIX = ".qos";
+    private static final String TMP_SUFFIX = ".qos.tmp";
+    private static final String COMPACTED = "compacted";
+    private static final int HEADER = 8;
+
+    private static final byte PATH = 1;
+    private static final byte UPDATE = 2;
+    private static final byte CLEAR = 3;
+    private static final byte TRIM = 4;
+
+    // Kind of updates that cannot be stored compactly
+    private static final byte JSON = -1;
+
+    private final File dir;
+    private final int segmentSize;
+    private final int capacity;
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<String, Stream> streams = new HashMap<>();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer scratch = ByteBuffer.allocate(256);
+    private boolean compacting;
+    private boolean closed;
+    private long nextSeq;
+    private int nextStreamId;
+    private long liveBytes;
+    private long totalBytes;
+
+    /**
+     * @param dir         Directory of the segments.
+     * @param segmentSize Size of a segment in bytes.
+     * @param capacity    Maximum amount of updates kept per stream, 0 or
+     *                    less is unbounded.
+     */
+    QosJournal(File dir, int segmentSize, int capacity) {
+        if (dir == null) {
+            throw new NullPointerException("dir");
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Opens the journal and replays it.
+     *
+     * @return Queued updates of every path that still has any.
+     */
+    synchronized Map<String, UpdateBuffer> open() {
+        Map<String, UpdateBuffer> restored = new LinkedHashMap<>();
+        if (closed || !dir.isDirectory()) {
+            return restored;
+        }
+        recoverCompaction();
+
+        Map<Integer, Stream> ids = new HashMap<>();
+        for (File f : listSegments(SUFFIX)) {
+            try {
+                Segment seg = map(f, seqOf(f), (int) f.length());
+                segments.add(seg);
+                replay(seg, segments.size() - 1, ids, restored);
+                nextSeq = Math.max(nextSeq, seg.seq + 1);
+            } catch (IOException e) {
+                LOGGER.warn("Failed to replay QoS journal segment {}", f, e);
+            }
+        }
+        for (Stream s : ids.values()) {
+            nextStreamId = Math.max(nextStreamId, s.id + 1);
+        }
+        if (streams.isEmpty()) {
+            reset();
+        }
+        return restored;
+    }
+
+    /**
+     * @param path Path of the stream.
+     * @return Whether the journal holds updates of the path.
+     */
+    synchronized boolean contains(String path) {
+        return streams.containsKey(path);
+    }
+
+    /**
+     * Appends an update to the stream of a path.
+     *
+     * @param path  Path of the stream.
+     * @param value Update to append.
+     */
+    synchronized void append(String path, Value value) {
+        if (closed) {
+            return;
+        }
+        Stream s = streams.get(path);
+        if (s == null) {
+            s = declare(path);
+        }
+        writeUpdate(s, value);
+    }
+
+    /**
+     * Replaces all the updates of a path.
+     *
+     * @param path   Path of the stream.
+     * @param values Updates to write.
+     */
+    synchronized void write(String path, Iterable<Value> values) {
+        if (closed) {
+            return;
+        }
+        Stream s = streams.get(path);
+        if (s != null) {
+            release(s);
+            writeClear(s);
+        }
+        s = declare(path);
+        if (values != null) {
+            for (Value v : values) {
+                writeUpdate(s, v);
+            }
+        }
+    }
+
+    /**
+     * Drops the oldest updates of a path, which were delivered.
+     *
+     * @param path  Path of the stream.
+     * @param count Amount of updates to drop.
+     */
+    synchronized void release(String path, int count) {
+        if (closed) {
+            return;
+        }
+        Stream s = streams.get(path);
+        if (s == null) {
+            return;
+        }
+        count = Math.min(count, s.records.size());
+        if (count <= 0) {
+            return;
+        }
+        trim(s, count);
+        ByteBuffer body = body(9);
+        body.put(TRIM);
+        body.putInt(s.id);
+        body.putInt(count);
+        writeRecord(body);
+    }
+
+    /**
+     * Drops all the updates of a path.
+     *
+     * @param path Path of the stream.
+     */
+    synchronized void clear(String path) {
+        Stream s = streams.get(path);
+        if (s == null) {
+            return;
+        }
+        release(s);
+        streams.remove(path);
+        if (streams.isEmpty()) {
+            reset();
+        } else {
+            writeClear(s);
+        }
+    }
+
+    /**
+     * Flushes and unmaps the segments. The journal can no longer be used
+     * afterwards, its streams are replayed when it is opened again.
+     */
+    synchronized void close() {
+        closed = true;
+        for (Segment seg : segments) {
+            seg.buf.force();
+            PlatformDependent.freeDirectBuffer(seg.buf);
+        }
+        segments.clear();
+        streams.clear();
+        liveBytes = 0;
+        totalBytes = 0;
+    }
+
+    private Stream declare(String path) {
+        Stream s = new Stream(nextStreamId++, path);
+        byte[] bytes = path.getBytes(CharsetUtil.UTF_8);
+        ByteBuffer body = body(9 + bytes.length);
+        body.put(PATH);
+        body.putInt(s.id);
+        body.putInt(bytes.length);
+        body.put(bytes);
+        writeRecord(body);
+        s.bytes = HEADER + body.limit();
+        liveBytes += s.bytes;
+        streams.put(path, s);
+        return s;
+    }
+
+    private void writeUpdate(Stream s, Value value) {
+        byte kind = UpdateBuffer.kindOf(value);
+        ByteBuffer body;
+        if (kind == UpdateBuffer.NULL) {
+            body = body(6);
+            body.put(UPDATE);
+            body.putInt(s.id);
+            body.put(kind);
+        } else if (kind >= 0) {
+            body = body(22);
+            body.put(UPDATE);
+            body.putInt(s.id);
+            body.put(kind);
+            body.putLong(UpdateBuffer.bitsOf(kind, value));
+            body.putLong(value.getTime());
+        } else {
+            JsonArray array = new JsonArray();
+            array.add(value);
+            array.add(value.getTimeStamp());
+            byte[] bytes = array.encode();
+            body = body(10 + bytes.length);
+            body.put(UPDATE);
+            body.putInt(s.id);
+            body.put(JSON);
+            body.putInt(bytes.length);
+            body.put(bytes);
+        }
+        long pos = writeRecord(body);
+        track(s, pos, HEADER + body.limit());
+    }
+
+    private void writeClear(Stream s) {
+        ByteBuffer body = body(5);
+        body.put(CLEAR);
+        body.putInt(s.id);
+        writeRecord(body);
+    }
+
+    private ByteBuffer body(int size) {
+        if (scratch.capacity() < size) {
+            scratch = ByteBuffer.allocate(Math.max(size, scratch.capacity() * 2));
+        }
+        scratch.clear();
+        return scratch;
+    }
+
+    /**
+     * @return Position of the written record.
+     */
+    private long writeRecord(ByteBuffer body) {
+        body.flip();
+        int len = body.remaining();
+        crc.reset();
+        crc.update(body.array(), body.arrayOffset(), len);
+        int checksum = (int) crc.getValue();
+
+        Segment seg = tail(HEADER + len);
+        int off = seg.pos;
+        seg.buf.putInt(off, len);
+        seg.buf.putInt(off + 4, checksum);
+        ByteBuffer dst = seg.buf.duplicate();
+        dst.position(off + HEADER);
+        dst.put(body);
+        seg.pos += HEADER + len;
+        totalBytes += HEADER + len;
+        return position(segments.size() - 1, off);
+    }
+
+    /**
+     * @return Position of the copied record.
+     */
+    private long copyRecord(Segment from, int off) {
+        int size = HEADER + from.buf.getInt(off);
+        ByteBuffer src = from.buf.duplicate();
+        src.limit(off + size);
+        src.position(off);
+        Segment seg = tail(size);
+        ByteBuffer dst = seg.buf.duplicate();
+        dst.position(seg.pos);
+        dst.put(src);
+        int pos = seg.pos;
+        seg.pos += size;
+        totalBytes += size;
+        return position(segments.size() - 1, pos);
+    }
+
+    private void track(Stream s, long pos, int size) {
+        s.records.addLast(pos);
+        s.bytes += size;
+        liveBytes += size;
+        if (capacity > 0 && s.records.size() > capacity) {
+            int dropped = recordSize(s.records.pollFirst());
+            s.bytes -= dropped;
+            liveBytes -= dropped;
+        }
+    }
+
+    private void trim(Stream s, int count) {
+        for (int i = 0; i < count; i++) {
+            int size = recordSize(s.records.pollFirst());
+            s.bytes -= size;
+            liveBytes -= size;
+        }
+    }
+
+    private void release(Stream s) {
+        liveBytes -= s.bytes;
+        s.bytes = 0;
+        s.records.clear();
+    }
+
+    private int recordSize(long pos) {
+        Segment seg = segments.get((int) (pos >>> 32));
+        return HEADER + seg.buf.getInt((int) pos);
+    }
+
+    /**
+     * @return Segment with room for the record, rolling to a new one if
+     * needed.
+     */
+    private Segment tail(int size) {
+        Segment seg = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (seg != null && seg.size - seg.pos >= size) {
+            return seg;
+        }
+        if (seg != null) {
+            seg.buf.force();
+            if (!compacting && (liveBytes * 2 < totalBytes)) {
+                compact();
+                seg = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+                if (seg != null && seg.size - seg.pos >= size) {
+                    return seg;
+                }
+            }
+        }
+        try {
+            if (!(dir.isDirectory() || dir.mkdirs())) {
+                throw new IOException("Failed to create " + dir);
+            }
+            long seq = nextSeq++;
+            String suffix = compacting ? TMP_SUFFIX : SUFFIX;
+            File f = new File(dir, seq + suffix);
+            seg = map(f, seq, Math.max(segmentSize, size));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        segments.add(seg);
+        return seg;
+    }
+
+    /**
+     * Copies all live records into new segments and deletes the old ones.
+     */
+    private void compact() {
+        List<Segment> old = new ArrayList<>(segments);
+        long oldTotal = totalBytes;
+        Map<Stream, ArrayDeque<Long>> moved = new HashMap<>();
+        segments.clear();
+        totalBytes = 0;
+        compacting = true;
+        boolean committed = false;
+        try {
+            for (Stream s : streams.values()) {
+                // The scratch buffer holds the record that is being written
+                byte[] bytes = s.path.getBytes(CharsetUtil.UTF_8);
+                ByteBuffer body = ByteBuffer.allocate(9 + bytes.length);
+                body.put(PATH);
+                body.putInt(s.id);
+                body.putInt(bytes.length);
+                body.put(bytes);
+                writeRecord(body);
+
+                ArrayDeque<Long> records = new ArrayDeque<>();
+                for (long pos : s.records) {
+                    Segment from = old.get((int) (pos >>> 32));
+                    records.add(copyRecord(from, (int) pos));
+                }
+                moved.put(s, records);
+            }
+            for (Segment seg : segments) {
+                seg.buf.force();
+            }
+            File marker = new File(dir, COMPACTED);
+            if (!marker.createNewFile() && !marker.exists()) {
+                throw new IOException("Failed to create " + marker);
+            }
+            committed = true;
+            for (Segment seg : old) {
+                delete(seg);
+            }
+            for (Segment seg : segments) {
+                File f = new File(dir, seg.seq + SUFFIX);
+                if (!seg.file.renameTo(f)) {
+                    throw new IOException("Failed to rename " + seg.file);
+                }
+                seg.file = f;
+            }
+            if (!marker.delete()) {
+                LOGGER.warn("Failed to delete {}", marker);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to compact QoS journal", e);
+            if (!committed) {
+                // Old segments are still intact, keep using them
+                for (Segment seg : segments) {
+                    delete(seg);
+                }
+                segments.clear();
+                segments.addAll(old);
+                totalBytes = oldTotal;
+                moved.clear();
+            }
+        } finally {
+            compacting = false;
+        }
+        for (Map.Entry<Stream, ArrayDeque<Long>> entry : moved.entrySet()) {
+            entry.getKey().records.clear();
+            entry.getKey().records.addAll(entry.getValue());
+        }
+        LOGGER.debug("Compacted QoS journal to {} bytes", totalBytes);
+    }
+
+    /**
+     * Deletes all the segments once nothing is queued anymore.
+     */
+    private void reset() {
+        for (Segment seg : segments) {
+            delete(seg);
+        }
+        segments.clear();
+        streams.clear();
+        liveBytes = 0;
+        totalBytes = 0;
+    }
+
+    private void replay(Segment seg, int index,
+                        Map<Integer, Stream> ids,
+                        Map<String, UpdateBuffer> restored) {
+        int off = 0;
+        byte[] data = new byte[0];
+        while (off + HEADER <= seg.size) {
+            int len = seg.buf.getInt(off);
+            if (len <= 0 || off + HEADER + len > seg.size) {
+                break;
+            }
+            if (data.length < len) {
+                data = new byte[Math.max(len, data.length * 2)];
+            }
+            ByteBuffer src = seg.buf.duplicate();
+            src.position(off + HEADER);
+            src.get(data, 0, len);
+            crc.reset();
+            crc.update(data, 0, len);
+            if ((int) crc.getValue() != seg.buf.getInt(off + 4)) {
+                LOGGER.warn("Dropping torn QoS journal record in {}", seg.file);
+                break;
+            }
+            apply(ByteBuffer.wrap(data, 0, len), position(index, off),
+                    ids, restored);
+            off += HEADER + len;
+        }
+        seg.pos = off;
+        totalBytes += off;
+    }
+
+    private void apply(ByteBuffer body, long pos,
+                       Map<Integer, Stream> ids,
+                       Map<String, UpdateBuffer> restored) {
+        byte type = body.get();
+        int id = body.getInt();
+        if (type == PATH) {
+            byte[] bytes = new byte[body.getInt()];
+            body.get(bytes);
+            Stream s = new Stream(id, new String(bytes, CharsetUtil.UTF_8));
+            s.bytes = HEADER + body.limit();
+            liveBytes += s.bytes;
+            Stream prev = streams.put(s.path, s);
+            if (prev != null) {
+                release(prev);
+                ids.remove(prev.id);
+            }
+            ids.put(id, s);
+            restored.put(s.path, new UpdateBuffer(capacity));
+        } else if (type == UPDATE) {
+            Stream s = ids.get(id);
+            if (s == null) {
+                return;
+            }
+            byte kind = body.get();
+            Value value;
+            if (kind == JSON) {
+                int len = body.getInt();
+                int off = body.arrayOffset() + body.position();
+                JsonArray array = new JsonArray(EncodingFormat.JSON,
+                        body.array(), off, len);
+                value = ValueUtils.toValue(array.get(0), array.get(1).toString());
+            } else if (kind == UpdateBuffer.NULL) {
+                value = null;
+            } else {
+                value = UpdateBuffer.decode(kind, body.getLong(), body.getLong());
+            }
+            restored.get(s.path).add(value);
+            track(s, pos, HEADER + body.limit());
+        } else if (type == TRIM) {
+            Stream s = ids.get(id);
+            if (s == null) {
+                return;
+            }
+            int count = Math.min(body.getInt(), s.records.size());
+            trim(s, count);
+            UpdateBuffer queue = restored.get(s.path);
+            for (int i = 0; i < count; i++) {
+                queue.poll();
+            }
+        } else if (type == CLEAR) {
+            Stream s = ids.remove(id);
+            if (s != null && streams.get(s.path) == s) {
+                release(s);
+                streams.remove(s.path);
+                restored.remove(s.path);
+            }
+        }
+    }
+
+    /**
+     * Finishes or rolls back a compaction that was interrupted.
+     */
+    private void recoverCompaction() {
+        File[] tmps = listSegments(TMP_SUFFIX);
+        File marker = new File(dir, COMPACTED);
+        if (!marker.exists()) {
+            for (File f : tmps) {
+                deleteFile(f);
+            }
+            return;
+        }
+        // Compacted segments were complete, replace the old ones
+        long first = tmps.length > 0 ? seqOf(tmps[0]) : Long.MAX_VALUE;
+        for (File f : listSegments(SUFFIX)) {
+            if (seqOf(f) < first) {
+                deleteFile(f);
+            }
+        }
+        for (File f : tmps) {
+            File to = new File(dir, seqOf(f) + SUFFIX);
+            if (!f.renameTo(to)) {
+                LOGGER.warn("Failed to rename {}", f);
+            }
+        }
+        deleteFile(marker);
+    }
+
+    private File[] listSegments(final String suffix) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        List<File> list = new ArrayList<>();
+        for (File f : files) {
+            String name = f.getName();
+            if (name.endsWith(suffix) && seqOf(f) >= 0) {
+                list.add(f);
+            }
+        }
+        File[] sorted = list.toArray(new File[list.size()]);
+        Arrays.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long x = seqOf(a);
+                long y = seqOf(b);
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        return sorted;
+    }
+
+    private void delete(Segment seg) {
+        PlatformDependent.freeDirectBuffer(seg.buf);
+        deleteFile(seg.file);
+    }
+
+    private static void deleteFile(File f) {
+        if (f.exists() && !f.delete()) {
+            LOGGER.warn("Failed to delete {}", f);
+        }
+    }
+
+    private static long seqOf(File f) {
+        String name = f.getName();
+        int i = name.indexOf('.');
+        try {
+            return Long.parseLong(i > 0 ? name.substring(0, i) : name);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long position(int segment, int offset) {
+        return ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static Segment map(File f, long seq, int size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            FileChannel ch = raf.getChannel();
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new Segment(f, seq, buf, size);
+        }
+    }
+
+    private static class Segment {
+
+        private final long seq;
+        private final MappedByteBuffer buf;
+        private final int size;
+        private File file;
+        private int pos;
+
+        Segment(File file, long seq, MappedByteBuffer buf, int size) {
+            this.file = file;
+            this.seq = seq;
+            this.buf = buf;
+            this.size = size;
+        }
+    }
+
+    private static class Stream {
+
+        private final int id;
+        private final String path;
+        private final ArrayDeque<Long> records = new ArrayDeque<>();
+        private long bytes;
+
+        Stream(int id, String path) {
+            this.id = id;
+            this.path = path;
+        }
+    }
+}
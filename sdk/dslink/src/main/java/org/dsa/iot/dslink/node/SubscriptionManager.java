@@ -1,19 +1,25 @@
 package org.dsa.iot.dslink.node;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import io.netty.util.internal.PlatformDependent;
 import io.netty.util.internal.SystemPropertyUtil;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.dsa.iot.dslink.DSLink;
 import org.dsa.iot.dslink.link.Responder;
 import org.dsa.iot.dslink.methods.responses.ListResponse;
 import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.provider.LoopProvider;
 import org.dsa.iot.dslink.util.Objects;
 import org.dsa.iot.dslink.util.PropertyReference;
 import org.dsa.iot.dslink.util.StringUtils;
@@ -23,7 +29,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Handles subscriptions for values and paths.
+ * Handles subscriptions for values and paths. Value subscriptions are kept
+ * in concurrent maps and bound directly to their node while it is in the
+ * tree, so publishing a value never looks up the registry. Changes to the
+ * registry are serialized per path through a set of striped locks instead
+ * of one global lock.
+ * <p>
+ * Updates that were queued while disconnected are caught up after the
+ * subscription is restored. Each outgoing message carries a bounded slice
+ * of that backlog ahead of the live updates so current values are never
+ * held back by history, and the next slice is only written once the
+ * previous one was acked. The persisted updates of QoS 3 subscriptions
+ * are released as their batches are acked, so a backlog that is being
+ * replayed survives a restart.
  *
  * @author Samuel Grenier
  */
@@ -31,18 +49,29 @@ public class SubscriptionManager {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FileDriver.class);
     public static final int QOS_QUEUE_SIZE;
+    private static final int LOCK_STRIPES = 64;
+    private static final int MAX_UPDATES = 1024;
+    private static final int WRITER_SHARDS = 8;
+    private static final int DISPATCH_DELAY;
+    private static final int CATCH_UP_BATCH_SIZE;
 
-    private boolean connected = false;
+    private volatile boolean connected = false;
     private DSLink link;
     private Map<String, ListResponse> pathSubsMap = new ConcurrentHashMap<>();
     private FileDriver storage;
     private SubscriptionWriter subscriptionWriter;
-    private Object valueLock = new Object();
-    private Map<String, Subscription> valueSubsPaths = new HashMap<>();
-    private Map<Integer, String> valueSubsSids = new HashMap<>();
+    private final Object[] valueLocks = new Object[LOCK_STRIPES];
+    private final Map<String, Subscription> valueSubsPaths = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, String> valueSubsSids = new ConcurrentHashMap<>();
+    private final AtomicInteger catchUpSubs = new AtomicInteger();
+    private final AtomicLong catchUpBacklog = new AtomicLong();
+    private final AtomicLong catchUpSent = new AtomicLong();
 
     public SubscriptionManager(DSLink link) {
         this.link = link;
+        for (int i = 0; i < valueLocks.length; i++) {
+            valueLocks[i] = new Object();
+        }
         if (link.isResponder()) {
             subscriptionWriter = new SubscriptionWriter();
             storage = new FileDriver(this);
@@ -62,7 +91,9 @@ public class SubscriptionManager {
         if (path == null) {
             return;
         }
-        pathSubsMap.put(path, resp);
+        synchronized (lockFor(path)) {
+            pathSubsMap.put(path, resp);
+        }
     }
 
     /**
@@ -76,15 +107,16 @@ public class SubscriptionManager {
      */
     public void addValueSub(String path, int sid, int qos) {
         path = NodeManager.normalizePath(path, true);
-        boolean clearStorage = false;
+        boolean resumed = false;
         Subscription sub;
-        synchronized (valueLock) {
+        Node node;
+        synchronized (lockFor(path)) {
             sub = valueSubsPaths.get(path);
             if (sub != null) {
                 if (sub.getSid() < 0) {
-                    clearStorage = true;
+                    resumed = true;
                 } else {
-                    valueSubsSids.remove(sub.getSid());
+                    valueSubsSids.remove(sub.getSid(), path);
                 }
                 sub.update(sid, qos);
             } else {
@@ -92,20 +124,26 @@ public class SubscriptionManager {
                 valueSubsPaths.put(path, sub);
             }
             valueSubsSids.put(sid, path);
+            NodeManager man = link.getNodeManager();
+            node = man.peekNode(path);
+            if (node != null) {
+                node.setSubscription(sub);
+            }
         }
-        if (clearStorage) {
-            storage.clear(sub);
+        if (resumed) {
+            sub.startCatchUp();
         }
         if (sub.hasUpdates()) {
             sub.enqueue();
         } else {
-            NodeManager man = link.getNodeManager();
-            Node node = man.getNode(path, false, false).getNode();
             if (node != null) {
                 if (node.shouldPostCachedValue()) {
                     postValueUpdate(node);
                 }
-                node.getListener().postOnSubscription();
+                NodeListener listener = node.peekListener();
+                if (listener != null) {
+                    listener.postOnSubscription();
+                }
             }
         }
     }
@@ -121,15 +159,37 @@ public class SubscriptionManager {
             if (set) {
                 node.setValue(val, false, false);
             }
-            synchronized (valueLock) {
-                sub = valueSubsPaths.get(node.getPath());
-            }
-            if (sub != null) {
+            sub = node.getSubscription();
+            if (sub != null && node.acceptPublish(val)) {
                 sub.postUpdate(val);
             }
         }
     }
 
+    /**
+     * @return Amount of subscriptions that are still replaying updates
+     * queued while disconnected.
+     */
+    public int getCatchUpSubscriptions() {
+        return catchUpSubs.get();
+    }
+
+    /**
+     * @return Amount of updates queued while disconnected that remain to
+     * be replayed.
+     */
+    public long getCatchUpBacklog() {
+        return catchUpBacklog.get();
+    }
+
+    /**
+     * @return Total amount of updates queued while disconnected that were
+     * replayed since the link started.
+     */
+    public long getCatchUpSent() {
+        return catchUpSent.get();
+    }
+
     /**
      * Tests whether the node has a path subscription that a remote endpoint
      * is listening to.
@@ -139,9 +199,7 @@ public class SubscriptionManager {
      */
     @SuppressWarnings("unused")
     public boolean hasPathSub(Node node) {
-        synchronized (valueLock) {
-            return node != null && pathSubsMap.containsKey(node.getPath());
-        }
+        return node != null && pathSubsMap.containsKey(node.getPath());
     }
 
     /**
@@ -153,9 +211,7 @@ public class SubscriptionManager {
      */
     @SuppressWarnings("unused")
     public boolean hasValueSub(Node node) {
-        synchronized (valueLock) {
-            return valueSubsPaths.containsKey(node.getPath());
-        }
+        return valueSubsPaths.containsKey(node.getPath());
     }
 
     /**
@@ -164,9 +220,29 @@ public class SubscriptionManager {
     public void onConnected() {
         connected = true;
         if (subscriptionWriter != null) {
-            synchronized (subscriptionWriter) {
-                subscriptionWriter.notifyAll();
-            }
+            subscriptionWriter.scheduleDrain(0);
+        }
+    }
+
+    /**
+     * Called when the upstream broker acks a message. Subscriptions waiting
+     * on an ack to write their next updates are resumed.
+     *
+     * @param ack Acked message ID.
+     */
+    public void onAck(int ack) {
+        if (subscriptionWriter != null) {
+            subscriptionWriter.onAck();
+        }
+    }
+
+    /**
+     * Stops the manager. Persisted QoS 3 updates are flushed and no longer
+     * written.
+     */
+    public void stop() {
+        if (storage != null) {
+            storage.close();
         }
     }
 
@@ -181,36 +257,26 @@ public class SubscriptionManager {
         ScheduledThreadPoolExecutor stpe = Objects.getDaemonThreadPool();
         NodeManager manager = link.getNodeManager();
 
-        Map<String, Subscription> subs;
-        synchronized (valueLock) {
-            subs = new HashMap<>(valueSubsPaths);
-            valueSubsSids.clear();
-        }
-
-        {
-            Iterator<Map.Entry<String, Subscription>> it = subs.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry<String, Subscription> entry = it.next();
-                Subscription sub = entry.getValue();
-                sub.onDisconnected();
-                if (sub.getQos() > 1) {
-                    continue;
-                }
-                it.remove();
-                String path = entry.getKey();
-                Node node = manager.getNode(path, false, false).getNode();
-                if (node == null) {
-                    continue;
-                }
-                final NodeListener listener = node.getListener();
-                if (listener != null) {
-                    stpe.execute(new Runnable() {
-                        @Override
-                        public void run() {
-                            listener.postOnUnsubscription();
-                        }
-                    });
-                }
+        valueSubsSids.clear();
+        for (Map.Entry<String, Subscription> entry : valueSubsPaths.entrySet()) {
+            Subscription sub = entry.getValue();
+            sub.onDisconnected();
+            if (sub.getQos() > 1) {
+                continue;
+            }
+            String path = entry.getKey();
+            Node node = manager.peekNode(path);
+            if (node == null) {
+                continue;
+            }
+            final NodeListener listener = node.peekListener();
+            if (listener != null) {
+                stpe.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.postOnUnsubscription();
+                    }
+                });
             }
         }
 
@@ -224,11 +290,11 @@ public class SubscriptionManager {
                     responder.removeResponse(entry.getValue().getRid());
                 }
                 String path = entry.getKey();
-                Node node = manager.getNode(path, false, false).getNode();
+                Node node = manager.peekNode(path);
                 if (node == null) {
                     continue;
                 }
-                final NodeListener listener = node.getListener();
+                final NodeListener listener = node.peekListener();
                 if (listener != null) {
                     stpe.execute(new Runnable() {
                         @Override
@@ -305,10 +371,7 @@ public class SubscriptionManager {
      * @param node Updated node.
      */
     public void postValueUpdate(Node node) {
-        Subscription sub;
-        synchronized (valueLock) {
-            sub = valueSubsPaths.get(node.getPath());
-        }
+        Subscription sub = node.getSubscription();
         if (sub != null) {
             sub.postUpdate(node.getValue());
         }
@@ -333,24 +396,31 @@ public class SubscriptionManager {
      * @param sid Subscription ID to unsubscribe
      */
     public void removeValueSub(int sid) {
-        String path;
-        synchronized (valueLock) {
-            path = valueSubsSids.remove(sid);
-            if (path == null) {
-                return;
-            }
-            valueSubsPaths.remove(path);
+        String path = valueSubsSids.get(sid);
+        if (path == null) {
+            return;
         }
-
         Node node = null;
-        {
+        synchronized (lockFor(path)) {
+            if (!valueSubsSids.remove(sid, path)) {
+                // Resubscribed or removed concurrently
+                return;
+            }
+            Subscription sub = valueSubsPaths.remove(path);
+            if (sub != null) {
+                sub.endCatchUp();
+            }
             NodeManager man = link.getNodeManager();
             if (man != null) {
-                node = man.getNode(path, false, false).getNode();
+                node = man.peekNode(path);
+            }
+            if (node != null) {
+                node.unbindSubscription(sub);
             }
         }
-        if (node != null) {
-            node.getListener().postOnUnsubscription();
+        NodeListener listener = node != null ? node.peekListener() : null;
+        if (listener != null) {
+            listener.postOnUnsubscription();
         }
     }
 
@@ -361,115 +431,271 @@ public class SubscriptionManager {
      * @param node Subscribed node to unsubscribe
      */
     public void removeValueSub(Node node) {
+        String path = node.getPath();
         Subscription sub;
-        synchronized (valueLock) {
-            sub = valueSubsPaths.remove(node.getPath());
+        synchronized (lockFor(path)) {
+            sub = valueSubsPaths.remove(path);
+            node.unbindSubscription(sub);
         }
         if (sub != null) {
+            sub.endCatchUp();
             removeValueSub(sub.getSid());
         }
     }
 
+    /**
+     * Removes a node from the tree unless it is subscribed, listed, or its
+     * parent is listed. The lock of the parent must be held. The node is
+     * checked and removed under the lock of its path, so a subscription
+     * made concurrently either keeps the node or comes after it was removed.
+     *
+     * @param node Node to remove.
+     * @return Whether the node was removed.
+     */
+    boolean removeUnused(Node node) {
+        String path = node.getPath();
+        synchronized (lockFor(path)) {
+            if (valueSubsPaths.containsKey(path)
+                    || hasPathSub(node) || hasPathSub(node.getParent())) {
+                return false;
+            }
+            node.delete(false);
+            return true;
+        }
+    }
+
     /**
      * FileDriver uses this to restore a subscription at startup.
      */
-    void restore(String path, Queue<Value> updates) {
+    void restore(String path, UpdateBuffer updates) {
         Subscription sub = new Subscription(path, -1, 3);
         sub.updates = updates;
-        synchronized (valueLock) {
+        synchronized (lockFor(path)) {
             valueSubsPaths.put(path, sub);
         }
     }
 
-    class Subscription implements MessageGenerator {
+    /**
+     * Binds the value subscription of the node's path, if any, to a node
+     * that was just added to the tree.
+     *
+     * @param node Added node.
+     */
+    void bind(Node node) {
+        if (valueSubsPaths.isEmpty()) {
+            return;
+        }
+        String path = node.getPath();
+        synchronized (lockFor(path)) {
+            Subscription sub = valueSubsPaths.get(path);
+            if (sub != null) {
+                node.setSubscription(sub);
+            }
+        }
+    }
+
+    /**
+     * @return Lock guarding registry changes of the path.
+     */
+    private Object lockFor(String path) {
+        int h = path.hashCode();
+        h ^= (h >>> 16);
+        return valueLocks[h & (LOCK_STRIPES - 1)];
+    }
+
+    class Subscription {
 
-        boolean enqueued = false;
+        final AtomicBoolean enqueued = new AtomicBoolean();
+        final int shard;
+        private final String nodePath;
         private int lastMid = -1;
         private Value lastUpdate;
-        private Queue<Value> lastUpdates;
+        private UpdateBuffer lastUpdates;
+        // Updates queued while disconnected that remain to be replayed
+        private UpdateBuffer backlog;
+        // Most recent live update written while catching up
+        private Value lastLive;
+        // Whether the backlog is persisted and how many of its updates
+        // were written in the batch awaiting an ack
+        private boolean journaled;
+        private int journaledSent;
         private String path;
         private int qos;
         private int sid;
         @SuppressFBWarnings("IS2_INCONSISTENT_SYNC")
-        private Queue<Value> updates;
+        private UpdateBuffer updates;
 
         Subscription(String path, int sid, int qos) {
+            this.nodePath = path;
             this.path = StringUtils.encodeName(path);
             this.sid = sid;
             this.qos = qos;
+            this.shard = System.identityHashCode(this) & (WRITER_SHARDS - 1);
         }
 
-        @Override
-        public JsonObject getMessage(int lastAckId) {
+        /**
+         * Adds pending updates to an outgoing batch. Backlog updates are
+         * added ahead of live ones so the last update of the subscription
+         * in the batch is always its most recent one. A batch without live
+         * updates repeats the last live update written, so it never ends on
+         * a replayed one.
+         *
+         * @param out       Batch of updates to add to.
+         * @param lastAckId The last ack received, used for qos.
+         * @param writer    Writer holding the budgets of the batch.
+         * @return Amount of updates added or -1 if the last updates
+         * written still have to be acked.
+         */
+        int collect(JsonArray out, int lastAckId, SubscriptionWriter writer) {
             if (qos == 0) {
                 Value val;
                 synchronized (this) {
                     val = lastUpdate;
                     lastUpdate = null;
-                    if (val == null) {
-                        return null;
-                    }
                 }
-                JsonArray ary = new JsonArray();
-                ary.add(generateUpdate(val));
-                JsonObject msg = new JsonObject();
-                msg.put("rid", 0);
-                msg.put("updates", ary);
-                return msg;
+                if (val == null) {
+                    return 0;
+                }
+                out.add(generateUpdate(val));
+                writer.liveBudget--;
+                return 1;
             }
             if (lastMid > lastAckId) {
-                Thread.yield();
-                enqueue();
-                return null;
+                return -1;
             }
-            JsonArray ary;
             synchronized (this) {
-                if (updates == null) {
-                    return null;
+                if (journaled) {
+                    // The previous batch was acked
+                    if (backlog == null) {
+                        clearJournal();
+                    } else if (journaledSent > 0) {
+                        storage.release(this, journaledSent);
+                    }
+                    journaledSent = 0;
                 }
-                int size = updates.size();
-                if (size == 0) {
-                    return null;
+                UpdateBuffer sent = null;
+                if ((backlog != null) && (writer.catchUpBudget > 0)) {
+                    sent = new UpdateBuffer(0);
+                    do {
+                        Value val = backlog.poll();
+                        writer.catchUpBudget -= estimateSize(val);
+                        sent.add(val);
+                    } while ((writer.catchUpBudget > 0) && !backlog.isEmpty());
+                    int count = sent.size();
+                    catchUpBacklog.addAndGet(-count);
+                    catchUpSent.addAndGet(count);
+                    if (journaled) {
+                        journaledSent = count;
+                    }
+                    if (backlog.isEmpty()) {
+                        backlog = null;
+                        catchUpSubs.decrementAndGet();
+                        LOGGER.debug("Caught up queued updates of {}", nodePath);
+                    }
                 }
-                if (size < 1024) { //don't want messages too large
-                    lastUpdates = updates;
-                    updates = null;
-                } else {
-                    lastUpdates = new LinkedList<Value>();
-                    for (int i = 1024; --i >= 0; ) {
-                        lastUpdates.add(updates.poll());
+                int max = writer.liveBudget;
+                if ((updates != null) && !updates.isEmpty() && (max > 0)) {
+                    int live = Math.min(max, updates.size());
+                    writer.liveBudget -= live;
+                    if (sent != null) {
+                        for (int i = live; --i >= 0; ) {
+                            sent.add(updates.poll());
+                        }
+                    } else if (updates.size() == live) {
+                        sent = updates;
+                        updates = null;
+                    } else {
+                        sent = new UpdateBuffer(QOS_QUEUE_SIZE);
+                        for (int i = live; --i >= 0; ) {
+                            sent.add(updates.poll());
+                        }
+                    }
+                    if (backlog != null) {
+                        lastLive = sent.peekLast();
                     }
+                } else if ((sent != null) && (lastLive != null)) {
+                    // Ends on the current value rather than a replayed one
+                    sent.add(lastLive);
+                    writer.liveBudget--;
                 }
-                ary = new JsonArray();
-                for (Value val : lastUpdates) {
-                    ary.add(generateUpdate(val));
+                if (backlog == null) {
+                    lastLive = null;
                 }
-            }
-            JsonObject msg = new JsonObject();
-            msg.put("rid", 0);
-            msg.put("updates", ary);
-            if (qos == 1) {
-                synchronized (this) {
+                if (sent == null) {
+                    return 0;
+                }
+                for (Value val : sent) {
+                    out.add(generateUpdate(val));
+                }
+                int count = sent.size();
+                if (qos == 1) {
+                    lastUpdates = null;
                     if (updates == null) {
-                        lastUpdates.clear();
-                        updates = lastUpdates;
-                        lastUpdates = null;
+                        sent.clear();
+                        updates = sent;
                     }
+                } else {
+                    lastUpdates = sent;
                 }
+                return count;
             }
-            if (hasUpdates()) {
-                enqueue();
+        }
+
+        /**
+         * Moves the updates that were queued while disconnected into the
+         * backlog so they are replayed alongside live updates. Persisted
+         * updates are kept until they are acked.
+         */
+        synchronized void startCatchUp() {
+            lastLive = null;
+            journaledSent = 0;
+            if ((qos < 2) || (updates == null) || updates.isEmpty()) {
+                clearJournal();
+                return;
             }
-            return msg;
+            int size = updates.size();
+            if (backlog == null) {
+                backlog = updates;
+                catchUpSubs.incrementAndGet();
+            } else {
+                backlog.addAll(updates);
+            }
+            updates = null;
+            catchUpBacklog.addAndGet(size);
+            if (qos == 3) {
+                journaled = storage != null;
+            } else {
+                clearJournal();
+            }
+            LOGGER.debug("Catching up {} queued updates of {}", size, nodePath);
         }
 
-        @Override
-        public void retry() {
-            enqueue();
+        /**
+         * Stops replaying the backlog, which is dropped.
+         */
+        synchronized void endCatchUp() {
+            if (backlog != null) {
+                catchUpBacklog.addAndGet(-backlog.size());
+                catchUpSubs.decrementAndGet();
+                backlog = null;
+            }
+            if (journaled) {
+                clearJournal();
+            }
         }
 
-        @Override
-        public void setMessageId(int lastMessageId) {
+        /**
+         * Drops the persisted updates of the subscription.
+         */
+        private void clearJournal() {
+            journaled = false;
+            journaledSent = 0;
+            if (storage != null) {
+                storage.clear(this);
+            }
+        }
+
+        void setMessageId(int lastMessageId) {
             lastMid = lastMessageId;
         }
 
@@ -499,6 +725,13 @@ public class SubscriptionManager {
             return path;
         }
 
+        /**
+         * @return Path the subscription is registered under.
+         */
+        String getNodePath() {
+            return nodePath;
+        }
+
         int getQos() {
             return qos;
         }
@@ -507,7 +740,7 @@ public class SubscriptionManager {
             return sid;
         }
 
-        Queue<Value> getUpdates() {
+        UpdateBuffer getUpdates() {
             return updates;
         }
 
@@ -515,6 +748,10 @@ public class SubscriptionManager {
             if ((qos == 0) && (lastUpdate != null)) {
                 return true;
             }
+            if ((backlog != null) || journaled) {
+                // Persisted updates are released once acked
+                return true;
+            }
             if (updates != null) {
                 return !updates.isEmpty();
             }
@@ -524,14 +761,28 @@ public class SubscriptionManager {
         synchronized void onDisconnected() {
             lastMid = -1;
             sid = -1;
-            if (lastUpdates != null) {
-                if (updates != null) {
-                    lastUpdates.addAll(updates);
-                    updates = lastUpdates;
+            lastLive = null;
+            journaled = false;
+            journaledSent = 0;
+            if ((lastUpdates != null) || (backlog != null)) {
+                // Unacked updates are resent ahead of newer ones
+                UpdateBuffer merged = new UpdateBuffer(QOS_QUEUE_SIZE);
+                if (lastUpdates != null) {
+                    merged.addAll(lastUpdates);
                     lastUpdates = null;
-                    if (qos == 3) {
-                        storage.store(this);
-                    }
+                }
+                if (backlog != null) {
+                    merged.addAll(backlog);
+                    catchUpBacklog.addAndGet(-backlog.size());
+                    catchUpSubs.decrementAndGet();
+                    backlog = null;
+                }
+                if (updates != null) {
+                    merged.addAll(updates);
+                }
+                updates = merged;
+                if (qos == 3) {
+                    storage.store(this);
                 }
             }
         }
@@ -545,17 +796,13 @@ public class SubscriptionManager {
                     lastUpdate = value;
                 } else {
                     if (updates == null) {
-                        updates = new LinkedList<Value>();
+                        updates = new UpdateBuffer(QOS_QUEUE_SIZE);
                     }
+                    // Drops the oldest update once the queue is full
                     updates.add(value);
-                    if (QOS_QUEUE_SIZE > 0) {
-                        while (updates.size() > QOS_QUEUE_SIZE) {
-                            updates.remove();
-                        }
-                    }
                 }
                 if ((qos == 3) && !connected) {
-                    storage.store(this);
+                    storage.append(this, value);
                 }
             }
             if (sid >= 0) {
@@ -572,81 +819,232 @@ public class SubscriptionManager {
                     updates = null;
                 }
             }
+            if (qos < 2) {
+                endCatchUp();
+            } else if (qos == 2) {
+                synchronized (this) {
+                    if (journaled) {
+                        clearJournal();
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return Approximate amount of bytes the update takes on the wire.
+         */
+        private int estimateSize(Value val) {
+            // Subscription ID, timestamp and separators
+            int size = 40;
+            if (val != null) {
+                String s = val.getString();
+                if (s != null) {
+                    size += s.length();
+                } else if (val.getPrimitiveKind() != Value.PRIMITIVE_NONE) {
+                    size += 12;
+                } else {
+                    size += 64;
+                }
+            }
+            return size;
         }
 
     }
 
-    private class SubscriptionWriter implements Runnable {
+    /**
+     * Writes the updates of all dirty subscriptions. Subscriptions with
+     * pending updates are queued in lock-free shards and a single drain task
+     * gathers them in one pass into {@code rid} 0 messages that each carry
+     * the updates of many subscriptions. When every queued subscription
+     * waits on an ack, draining resumes as soon as an ack is received.
+     */
+    class SubscriptionWriter implements Runnable, MessageGenerator {
 
-        private Queue<Subscription> queue = new LinkedList<Subscription>();
+        private final Queue<Subscription>[] shards;
+        private final AtomicBoolean draining = new AtomicBoolean();
+        // Only accessed by the drain task
+        private final List<Subscription> written = new ArrayList<>();
+        private final List<Subscription> requeue = new ArrayList<>();
+        private int collected;
+        private boolean retry;
+        private int lastAckId;
+        private volatile boolean awaitingAck;
+        private volatile boolean clear;
+        // Remaining room of the message being generated
+        int liveBudget;
+        int catchUpBudget;
 
-        public SubscriptionWriter() {
-            new Thread(this, "Subscription Writer").start();
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        SubscriptionWriter() {
+            shards = new Queue[WRITER_SHARDS];
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = PlatformDependent.newMpscQueue();
+            }
         }
 
-        /**
-         * Returns true if enqueued to be written.
-         */
-        public synchronized Subscription dequeue() {
-            Subscription ret = queue.poll();
-            if (ret != null) {
-                ret.enqueued = false;
+        void enqueue(Subscription sub) {
+            if (!connected) {
+                return;
+            }
+            if (sub.enqueued.compareAndSet(false, true)) {
+                shards[sub.shard].add(sub);
+                scheduleDrain(0);
             }
-            return ret;
         }
 
-        /**
-         * Returns true if enqueued to be written.
-         */
-        public synchronized boolean enqueue(Subscription sub) {
-            if (connected) {
-                if (sub.enqueued) {
-                    return false;
+        void scheduleDrain(int delay) {
+            if (draining.compareAndSet(false, true)) {
+                if (delay > 0) {
+                    LoopProvider.getProvider().schedule(this, delay, TimeUnit.MILLISECONDS);
+                } else {
+                    LoopProvider.getProvider().schedule(this);
                 }
-                sub.enqueued = true;
-                queue.add(sub);
             }
-            notifyAll();
-            return false;
         }
 
+        void onAck() {
+            if (awaitingAck) {
+                awaitingAck = false;
+                scheduleDrain(0);
+            }
+        }
+
+        @Override
         public void run() {
-            Subscription sub = null;
-            while (true) {
-                synchronized (this) {
-                    while (!connected) {
-                        try {
-                            wait(10000);
-                        } catch (Exception ignore) {
-                        }
+            boolean delay = false;
+            boolean ack = false;
+            try {
+                if (clear) {
+                    clear = false;
+                    dropQueued();
+                }
+                while (connected && hasQueued()) {
+                    collected = 0;
+                    retry = false;
+                    link.getWriter().writeResponse(this);
+                    if (retry) {
+                        // Network is backed up
+                        delay = true;
+                        break;
+                    } else if (collected == 0) {
+                        ack = true;
+                        break;
                     }
-                    while (connected && queue.isEmpty()) {
-                        try {
-                            wait(10000);
-                        } catch (Exception x) {
-                            LOGGER.trace("Ignore", x);
-                        }
+                }
+            } catch (Exception x) {
+                LOGGER.warn("Failed to write subscription updates", x);
+                delay = true;
+            } finally {
+                draining.set(false);
+            }
+            if (clear) {
+                // Cleared while draining
+                scheduleDrain(0);
+                return;
+            }
+            if (!(connected && hasQueued())) {
+                return;
+            }
+            if (ack) {
+                // Everything awaits an ack, resume once one is received
+                awaitingAck = true;
+                if (link.getWriter().lastAckReceived() != lastAckId) {
+                    onAck();
+                }
+            } else {
+                scheduleDrain(delay ? DISPATCH_DELAY : 0);
+            }
+        }
+
+        @Override
+        public JsonObject getMessage(int lastAckId) {
+            written.clear();
+            this.lastAckId = lastAckId;
+            JsonArray updates = new JsonArray();
+            liveBudget = MAX_UPDATES;
+            catchUpBudget = CATCH_UP_BATCH_SIZE;
+            for (Queue<Subscription> shard : shards) {
+                Subscription sub;
+                while ((liveBudget > 0) && ((sub = shard.poll()) != null)) {
+                    sub.enqueued.set(false);
+                    int count = sub.collect(updates, lastAckId, this);
+                    if (count < 0) {
+                        requeue.add(sub);
+                        continue;
                     }
-                    if (connected) {
-                        sub = dequeue();
+                    if ((count > 0) && (sub.getQos() > 0)) {
+                        written.add(sub);
                     }
-                }
-                if (sub != null) {
-                    try {
-                        link.getWriter().writeResponse(sub);
-                    } catch (Exception x) {
-                        LOGGER.warn(sub.path, x);
+                    if (sub.hasUpdates()) {
+                        requeue.add(sub);
                     }
                 }
             }
+            for (Subscription sub : requeue) {
+                if (sub.enqueued.compareAndSet(false, true)) {
+                    shards[sub.shard].add(sub);
+                }
+            }
+            requeue.clear();
+            collected = updates.size();
+            if (collected == 0) {
+                return null;
+            }
+            JsonObject msg = new JsonObject();
+            msg.put("rid", 0);
+            msg.put("updates", updates);
+            return msg;
+        }
+
+        @Override
+        public void retry() {
+            retry = true;
+        }
+
+        @Override
+        public void setMessageId(int messageId) {
+            for (Subscription sub : written) {
+                sub.setMessageId(messageId);
+            }
+            written.clear();
+        }
+
+        private boolean hasQueued() {
+            for (Queue<Subscription> shard : shards) {
+                if (!shard.isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Requests the queued subscriptions to be dropped. The shards are
+         * only ever consumed by the drain task, so the drain task empties
+         * them.
+         */
+        void clearQueue() {
+            clear = true;
+            scheduleDrain(0);
         }
 
-        synchronized void clearQueue() {
-            Subscription sub = queue.poll();
-            while (sub != null) {
-                sub.enqueued = false;
-                sub = queue.poll();
+        private void dropQueued() {
+            for (Queue<Subscription> shard : shards) {
+                Subscription sub;
+                while ((sub = shard.poll()) != null) {
+                    sub.enqueued.set(false);
+                    if (connected && sub.hasUpdates()) {
+                        // Dirtied again after reconnecting
+                        requeue.add(sub);
+                    }
+                }
             }
+            for (Subscription sub : requeue) {
+                if (sub.enqueued.compareAndSet(false, true)) {
+                    shards[sub.shard].add(sub);
+                }
+            }
+            requeue.clear();
         }
 
     }
@@ -654,6 +1052,12 @@ public class SubscriptionManager {
     static {
         String s = PropertyReference.QOS_QUEUE_SIZE;
         QOS_QUEUE_SIZE = SystemPropertyUtil.getInt(s, 0);
+
+        s = PropertyReference.DISPATCH_DELAY;
+        DISPATCH_DELAY = SystemPropertyUtil.getInt(s, 10);
+
+        s = PropertyReference.CATCH_UP_BATCH_SIZE;
+        CATCH_UP_BATCH_SIZE = SystemPropertyUtil.getInt(s, 65536);
     }
 
 }
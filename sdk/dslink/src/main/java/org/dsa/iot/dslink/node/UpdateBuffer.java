@@ -0,0 +1,300 @@
+package org.dsa.iot.dslink.node;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.dsa.iot.dslink.node.value.Value;
+
+/**
+ * Ring buffer of queued value updates. When bounded and full, adding an
+ * update overwrites the oldest one. Numeric and boolean updates are stored
+ * compactly as primitive value bits and epoch millisecond timestamps in
+ * parallel arrays. The buffer only falls back to holding {@link Value}
+ * objects once an update arrives that cannot be stored that way.
+ * <p>
+ * This class is not thread safe.
+ */
+class UpdateBuffer implements Iterable<Value> {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    static final byte NULL = 0;
+    static final byte BOOL = 1;
+    static final byte INT = 2;
+    static final byte LONG = 3;
+    static final byte DOUBLE = 4;
+    static final byte FLOAT = 5;
+
+    private final int capacity;
+    private int head;
+    private int size;
+
+    // Compact storage
+    private long[] times;
+    private long[] bits;
+    private byte[] kinds;
+
+    // Object storage, only used once an update could not be stored compactly
+    private Value[] values;
+
+    /**
+     * @param capacity Maximum amount of updates to hold, 0 or less is
+     *                 unbounded.
+     */
+    UpdateBuffer(int capacity) {
+        this.capacity = capacity;
+        int length = INITIAL_CAPACITY;
+        if (capacity > 0) {
+            length = Math.min(capacity, length);
+        }
+        times = new long[length];
+        bits = new long[length];
+        kinds = new byte[length];
+    }
+
+    /**
+     * Adds an update, overwriting the oldest one if the buffer is full.
+     *
+     * @param value Update to add, can be {@code null}.
+     */
+    void add(Value value) {
+        if (size == capacity && capacity > 0) {
+            // Full, overwrite the oldest
+            int slot = head;
+            head = next(head);
+            size--;
+            store(slot, value);
+            size++;
+            return;
+        }
+        if (size == length()) {
+            grow();
+        }
+        store(slot(size), value);
+        size++;
+    }
+
+    /**
+     * Adds all the updates of another buffer, oldest first.
+     *
+     * @param other Buffer to add from.
+     */
+    void addAll(UpdateBuffer other) {
+        for (Value value : other) {
+            add(value);
+        }
+    }
+
+    /**
+     * @return The oldest update, which is removed from the buffer, or
+     * {@code null} if the buffer is empty.
+     */
+    Value poll() {
+        if (size == 0) {
+            return null;
+        }
+        Value value = get(head);
+        if (values != null) {
+            values[head] = null;
+        }
+        head = next(head);
+        size--;
+        return value;
+    }
+
+    /**
+     * @return The most recent update, or {@code null} if the buffer is
+     * empty.
+     */
+    Value peekLast() {
+        return size == 0 ? null : get(slot(size - 1));
+    }
+
+    void clear() {
+        if (values != null) {
+            for (int i = 0; i < size; i++) {
+                values[slot(i)] = null;
+            }
+        }
+        head = 0;
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return Whether updates are currently stored compactly.
+     */
+    boolean isCompact() {
+        return values == null;
+    }
+
+    @Override
+    public Iterator<Value> iterator() {
+        return new Iterator<Value>() {
+
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public Value next() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(slot(index++));
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private void store(int slot, Value value) {
+        if (values == null) {
+            byte kind = kindOf(value);
+            if (kind >= 0) {
+                kinds[slot] = kind;
+                bits[slot] = bitsOf(kind, value);
+                times[slot] = value != null ? value.getTime() : 0;
+                return;
+            }
+            inflate();
+        }
+        values[slot] = value;
+    }
+
+    private Value get(int slot) {
+        if (values != null) {
+            return values[slot];
+        }
+        return decode(kinds[slot], bits[slot], times[slot]);
+    }
+
+    /**
+     * @return Value of the compactly stored update.
+     */
+    static Value decode(byte kind, long b, long time) {
+        Value value;
+        switch (kind) {
+            case NULL:
+                return null;
+            case BOOL:
+                value = new Value(b != 0);
+                break;
+            case INT:
+                value = new Value((int) b);
+                break;
+            case LONG:
+                value = new Value(b);
+                break;
+            case FLOAT:
+                value = new Value(Float.intBitsToFloat((int) b));
+                break;
+            default:
+                value = new Value(Double.longBitsToDouble(b));
+        }
+        value.setTime(time);
+        return value;
+    }
+
+    /**
+     * Switches to object storage.
+     */
+    private void inflate() {
+        int length = length();
+        Value[] values = new Value[length];
+        for (int i = 0; i < size; i++) {
+            int slot = slot(i);
+            values[slot] = get(slot);
+        }
+        this.values = values;
+        times = null;
+        bits = null;
+        kinds = null;
+    }
+
+    private void grow() {
+        int length = length();
+        int newLength = length << 1;
+        if (capacity > 0) {
+            newLength = Math.min(capacity, newLength);
+        }
+        if (values != null) {
+            Value[] values = new Value[newLength];
+            for (int i = 0; i < size; i++) {
+                values[i] = this.values[slot(i)];
+            }
+            this.values = values;
+        } else {
+            long[] times = new long[newLength];
+            long[] bits = new long[newLength];
+            byte[] kinds = new byte[newLength];
+            for (int i = 0; i < size; i++) {
+                int slot = slot(i);
+                times[i] = this.times[slot];
+                bits[i] = this.bits[slot];
+                kinds[i] = this.kinds[slot];
+            }
+            this.times = times;
+            this.bits = bits;
+            this.kinds = kinds;
+        }
+        head = 0;
+    }
+
+    private int length() {
+        return values != null ? values.length : kinds.length;
+    }
+
+    private int slot(int index) {
+        int slot = head + index;
+        int length = length();
+        return slot >= length ? slot - length : slot;
+    }
+
+    private int next(int slot) {
+        return ++slot == length() ? 0 : slot;
+    }
+
+    /**
+     * @return Kind to store the value as, or -1 if it cannot be stored
+     * compactly.
+     */
+    static byte kindOf(Value value) {
+        if (value == null) {
+            return NULL;
+        }
+        switch (value.getPrimitiveKind()) {
+            case Value.PRIMITIVE_BOOL:
+                return BOOL;
+            case Value.PRIMITIVE_INT:
+                return INT;
+            case Value.PRIMITIVE_LONG:
+                return LONG;
+            case Value.PRIMITIVE_DOUBLE:
+                return DOUBLE;
+            case Value.PRIMITIVE_FLOAT:
+                return FLOAT;
+            default:
+                return -1;
+        }
+    }
+
+    static long bitsOf(byte kind, Value value) {
+        if (kind == NULL) {
+            return 0;
+        }
+        return value.getPrimitiveBits();
+    }
+}
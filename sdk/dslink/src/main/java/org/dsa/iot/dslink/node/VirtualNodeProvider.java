@@ -0,0 +1,35 @@
+package org.dsa.iot.dslink.node;
+
+/**
+ * Provides the nodes of a subtree on demand instead of requiring every node
+ * to be built up front. The provider of a node is consulted for every
+ * descendant of that node that is requested but does not exist yet.
+ * Materialized nodes that are neither subscribed nor listed can be evicted
+ * again once too many of them are resident.
+ *
+ * @see NodeManager#setVirtualNodeProvider(Node, VirtualNodeProvider)
+ */
+public interface VirtualNodeProvider {
+
+    /**
+     * Called when a child that does not exist is requested.
+     *
+     * @param parent Parent of the requested child.
+     * @param name   Encoded name of the requested child.
+     * @return A builder of the child created through
+     * {@link Node#createChild(String, boolean)}, or {@code null} if the
+     * child does not exist.
+     */
+    NodeBuilder materialize(Node parent, String name);
+
+    /**
+     * Called when a node is listed, before its children are sent. Children
+     * added before returning are part of the initial list response. The
+     * provider can also add them afterwards in pages through
+     * {@link Node#addChildren(java.util.List)}, each page is then streamed
+     * to the list subscription as it is added.
+     *
+     * @param parent Node being listed.
+     */
+    void list(Node parent);
+}
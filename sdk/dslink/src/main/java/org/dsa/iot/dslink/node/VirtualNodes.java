@@ -0,0 +1,203 @@
+package org.dsa.iot.dslink.node;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.dsa.iot.dslink.link.Linkable;
+import org.dsa.iot.dslink.provider.LoopProvider;
+
+/**
+ * Tracks the virtual node providers of a node manager along with the nodes
+ * they materialized, least recently used first. Evicted nodes are removed
+ * from the tree by a separate task so that nodes are never deleted from
+ * within a lookup, where the caller may hold locks.
+ */
+class VirtualNodes implements Runnable {
+
+    // Amount of nodes examined per eviction, bounds the cost of pinned nodes
+    private static final int EVICT_SCAN = 64;
+
+    private final Map<Node, VirtualNodeProvider> providers = new ConcurrentHashMap<>();
+    private final LinkedHashMap<Node, Boolean> resident = new LinkedHashMap<>(16, 0.75f, true);
+    // Guarded by resident
+    private List<Node> evicted = new ArrayList<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final int limit;
+
+    /**
+     * @param limit Amount of materialized nodes to keep resident before
+     *              evicting unused ones.
+     */
+    VirtualNodes(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * @return Whether any provider is set.
+     */
+    boolean isEmpty() {
+        return providers.isEmpty();
+    }
+
+    void setProvider(Node node, VirtualNodeProvider provider) {
+        if (provider == null) {
+            providers.remove(node);
+        } else {
+            providers.put(node, provider);
+        }
+    }
+
+    /**
+     * @param node Node to get the provider of.
+     * @return Provider of the node or of its closest ancestor, if any.
+     */
+    VirtualNodeProvider getProvider(Node node) {
+        while (node != null) {
+            VirtualNodeProvider provider = providers.get(node);
+            if (provider != null) {
+                return provider;
+            }
+            node = node.getParent();
+        }
+        return null;
+    }
+
+    /**
+     * @param parent Parent of the child.
+     * @param name   Encoded name of the child.
+     * @return The materialized child, if the provider has it.
+     */
+    Node materialize(Node parent, String name) {
+        VirtualNodeProvider provider = getProvider(parent);
+        if (provider == null) {
+            return null;
+        }
+        NodeBuilder builder = provider.materialize(parent, name);
+        if (builder == null) {
+            return null;
+        }
+        Node child = builder.build();
+        track(child);
+        return child;
+    }
+
+    /**
+     * Lets the provider of the node add its children before the node is
+     * listed.
+     *
+     * @param node Node being listed.
+     */
+    void list(Node node) {
+        VirtualNodeProvider provider = getProvider(node);
+        if (provider == null) {
+            return;
+        }
+        Map<String, Node> children = node.getChildren();
+        Set<Node> existing = null;
+        if (children != null) {
+            existing = new HashSet<>(children.values());
+        }
+        provider.list(node);
+        children = node.getChildren();
+        if (children != null) {
+            for (Node child : children.values()) {
+                if (existing == null || !existing.contains(child)) {
+                    track(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks a node as recently used if it was materialized.
+     *
+     * @param node Accessed node.
+     */
+    void touch(Node node) {
+        synchronized (resident) {
+            resident.get(node);
+        }
+    }
+
+    private void track(Node node) {
+        boolean evict = false;
+        synchronized (resident) {
+            resident.put(node, Boolean.TRUE);
+            int excess = resident.size() - limit;
+            if (excess > 0) {
+                Iterator<Node> it = resident.keySet().iterator();
+                for (int i = 0; i < EVICT_SCAN && excess > 0 && it.hasNext(); i++) {
+                    Node n = it.next();
+                    if (n == node) {
+                        continue;
+                    }
+                    Node parent = n.getParent();
+                    if (parent == null || parent.getChild(n.getName(), false) != n) {
+                        // Already removed from the tree
+                        it.remove();
+                        excess--;
+                    } else if (isEvictable(n, parent)) {
+                        it.remove();
+                        evicted.add(n);
+                        evict = true;
+                        excess--;
+                    }
+                }
+            }
+        }
+        if (evict && evicting.compareAndSet(false, true)) {
+            LoopProvider.getProvider().schedule(this);
+        }
+    }
+
+    /**
+     * Removes the evicted nodes from the tree. Nodes that were subscribed
+     * or gained children since they were evicted are kept resident. The
+     * parent checks the subscriptions again while removing the node, which
+     * closes the window between the check below and the removal.
+     */
+    @Override
+    public void run() {
+        evicting.set(false);
+        List<Node> evicted;
+        synchronized (resident) {
+            evicted = this.evicted;
+            if (evicted.isEmpty()) {
+                return;
+            }
+            this.evicted = new ArrayList<>();
+        }
+        for (Node n : evicted) {
+            Node parent = n.getParent();
+            if (parent == null || parent.getChild(n.getName(), false) != n) {
+                continue;
+            } else if (!(isEvictable(n, parent) && parent.removeUnusedChild(n))) {
+                synchronized (resident) {
+                    resident.put(n, Boolean.TRUE);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Whether the node can be removed without anyone noticing.
+     */
+    private static boolean isEvictable(Node node, Node parent) {
+        Map<String, Node> children = node.getChildren();
+        if (!(children == null || children.isEmpty())) {
+            return false;
+        } else if (node.getSubscription() != null) {
+            return false;
+        }
+        Linkable link = node.getLink();
+        SubscriptionManager manager = link != null ? link.getSubscriptionManager() : null;
+        return manager == null
+                || !(manager.hasPathSub(node) || manager.hasPathSub(parent));
+    }
+}
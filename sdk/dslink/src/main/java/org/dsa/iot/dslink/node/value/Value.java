@@ -11,24 +11,52 @@ import java.util.Arrays;
 /**
  * Common class for handling values. It is always recommended to check the type
  * before using a getter.
+ * <p>
+ * Integer, long, float, double and boolean values are held as primitive bits
+ * and only boxed when read through {@link #getNumber()} or
+ * {@link #getBool()}. The time stamp is held in epoch milliseconds and only
+ * formatted when it is requested.
  *
  * @author Samuel Grenier
  */
 public class Value {
 
+    /**
+     * Kinds of primitives a value can hold, see {@link #getPrimitiveKind()}.
+     */
+    public static final byte PRIMITIVE_NONE = 0;
+    public static final byte PRIMITIVE_BOOL = 1;
+    public static final byte PRIMITIVE_INT = 2;
+    public static final byte PRIMITIVE_LONG = 3;
+    public static final byte PRIMITIVE_DOUBLE = 4;
+    public static final byte PRIMITIVE_FLOAT = 5;
+
     private ValueType type;
     private boolean immutable;
     private boolean serializable = true;
+    private byte kind;
 
     private long tsDate = -1;
     private String tsFormatted;
 
-    private Number number;
-    private Boolean bool;
-    private String string;
-    private JsonObject map;
-    private JsonArray array;
-    private byte[] binary;
+    private long bits;
+    // String, JSON object, JSON array, binary or a number of another class
+    private Object ref;
+
+    /**
+     * Creates a copy of a value that is left mutable.
+     *
+     * @param other Value to copy.
+     */
+    Value(Value other) {
+        this.type = other.type;
+        this.serializable = other.serializable;
+        this.kind = other.kind;
+        this.tsDate = other.tsDate;
+        this.tsFormatted = other.tsFormatted;
+        this.bits = other.bits;
+        this.ref = other.ref;
+    }
 
     /**
      * Creates a value with an initial type of binary.
@@ -66,6 +94,51 @@ public class Value {
         set(n, time);
     }
 
+    /**
+     * Creates a value with an initial type of a number without boxing it.
+     *
+     * @param n Initial number to set.
+     */
+    public Value(int n) {
+        set(n);
+    }
+
+    /**
+     * Creates a value with an initial type of a number without boxing it.
+     *
+     * @param n Initial number to set.
+     */
+    public Value(long n) {
+        set(n);
+    }
+
+    /**
+     * Creates a value with an initial type of a number without boxing it.
+     *
+     * @param n Initial number to set.
+     */
+    public Value(float n) {
+        set(n);
+    }
+
+    /**
+     * Creates a value with an initial type of a number without boxing it.
+     *
+     * @param n Initial number to set.
+     */
+    public Value(double n) {
+        set(n);
+    }
+
+    /**
+     * Creates a value with an initial type of a boolean without boxing it.
+     *
+     * @param b Initial boolean to set.
+     */
+    public Value(boolean b) {
+        set(b);
+    }
+
     /**
      * Creates a value with an initial type of a boolean.
      *
@@ -142,7 +215,7 @@ public class Value {
     }
 
     public void set(byte[] b, String time) {
-        set(ValueType.BINARY, b, null, null, null, null, null, time);
+        set(ValueType.BINARY, PRIMITIVE_NONE, 0, b == null ? null : b.clone(), time);
     }
 
     /**
@@ -157,7 +230,56 @@ public class Value {
      * @param time Initial time to set.
      */
     public void set(Number n, String time) {
-        set(ValueType.NUMBER, null, n, null, null, null, null, time);
+        if (n instanceof Integer) {
+            set(ValueType.NUMBER, PRIMITIVE_INT, n.intValue(), null, time);
+        } else if (n instanceof Long) {
+            set(ValueType.NUMBER, PRIMITIVE_LONG, n.longValue(), null, time);
+        } else if (n instanceof Double) {
+            long b = Double.doubleToLongBits(n.doubleValue());
+            set(ValueType.NUMBER, PRIMITIVE_DOUBLE, b, null, time);
+        } else if (n instanceof Float) {
+            long b = Float.floatToIntBits(n.floatValue());
+            set(ValueType.NUMBER, PRIMITIVE_FLOAT, b, null, time);
+        } else {
+            set(ValueType.NUMBER, PRIMITIVE_NONE, 0, n, time);
+        }
+    }
+
+    /**
+     * @param n Number to set.
+     */
+    public void set(int n) {
+        set(ValueType.NUMBER, PRIMITIVE_INT, n, null, null);
+    }
+
+    /**
+     * @param n Number to set.
+     */
+    public void set(long n) {
+        set(ValueType.NUMBER, PRIMITIVE_LONG, n, null, null);
+    }
+
+    /**
+     * @param n Number to set.
+     */
+    public void set(float n) {
+        long b = Float.floatToIntBits(n);
+        set(ValueType.NUMBER, PRIMITIVE_FLOAT, b, null, null);
+    }
+
+    /**
+     * @param n Number to set.
+     */
+    public void set(double n) {
+        long b = Double.doubleToLongBits(n);
+        set(ValueType.NUMBER, PRIMITIVE_DOUBLE, b, null, null);
+    }
+
+    /**
+     * @param b Boolean to set.
+     */
+    public void set(boolean b) {
+        set(ValueType.BOOL, PRIMITIVE_BOOL, b ? 1 : 0, null, null);
     }
 
     /**
@@ -172,7 +294,11 @@ public class Value {
      * @param time Initial time to set.
      */
     public void set(Boolean b, String time) {
-        set(ValueType.BOOL, null, null, b, null, null, null, time);
+        if (b != null) {
+            set(ValueType.BOOL, PRIMITIVE_BOOL, b ? 1 : 0, null, time);
+        } else {
+            set(ValueType.BOOL, PRIMITIVE_NONE, 0, null, time);
+        }
     }
 
     /**
@@ -196,7 +322,7 @@ public class Value {
                 return;
             }
         }
-        set(ValueType.STRING, null, null, null, s, null, null, time);
+        set(ValueType.STRING, PRIMITIVE_NONE, 0, s, time);
     }
 
     /**
@@ -211,7 +337,7 @@ public class Value {
      * @param time Initial time to set.
      */
     public void set(JsonObject object, String time) {
-        set(ValueType.MAP, null, null, null, null, null, object, time);
+        set(ValueType.MAP, PRIMITIVE_NONE, 0, object, time);
     }
 
     /**
@@ -226,7 +352,7 @@ public class Value {
      * @param time Initial time to set.
      */
     public void set(JsonArray array, String time) {
-        set(ValueType.ARRAY, null, null, null, null, array, null, time);
+        set(ValueType.ARRAY, PRIMITIVE_NONE, 0, array, time);
     }
 
     /**
@@ -235,28 +361,24 @@ public class Value {
      * thrown.
      *
      * @param type New type for the value
-     * @param n    Number to set, or null
-     * @param b    Boolean to set, or null
-     * @param s    String to set, or null
-     * @param a    JSON array to set, or null
-     * @param o    JSON object to set, or null
-     */
-    private void set(ValueType type, byte[] binary, Number n, Boolean b,
-                     String s, JsonArray a, JsonObject o, String time) {
+     * @param kind Kind of primitive held in the bits
+     * @param bits Primitive bits to set
+     * @param ref  Object to set, or null
+     * @param time Formatted time to set, or null for the current time
+     */
+    private void set(ValueType type, byte kind, long bits,
+                     Object ref, String time) {
         checkImmutable();
         this.type = type;
         if (time == null) {
             setTime(System.currentTimeMillis());
         } else {
+            this.tsDate = -1;
             this.tsFormatted = time;
         }
-
-        this.binary = binary == null ? null : binary.clone();
-        this.number = n;
-        this.bool = b;
-        this.string = s;
-        this.array = a;
-        this.map = o;
+        this.kind = kind;
+        this.bits = bits;
+        this.ref = ref;
     }
 
     /**
@@ -295,15 +417,17 @@ public class Value {
 
     /**
      * Time stamp is always updated when the value is created or updated
-     * with a new value.
+     * with a new value. It is formatted on every call unless the value was
+     * created from a formatted time.
      *
      * @return The formatted time this value was set or created.
      */
     public String getTimeStamp() {
-        if (tsFormatted == null) {
-            tsFormatted = TimeUtils.format(getTime());
+        String ts = tsFormatted;
+        if (ts == null) {
+            ts = TimeUtils.format(tsDate);
         }
-        return tsFormatted;
+        return ts;
     }
 
     /**
@@ -319,42 +443,140 @@ public class Value {
     }
 
     public byte[] getBinary() {
-        return binary == null ? null : binary.clone();
+        if (ref instanceof byte[]) {
+            return ((byte[]) ref).clone();
+        }
+        return null;
     }
 
     /**
+     * Integers, longs, floats and doubles are boxed on every call, use
+     * {@link #getDouble()} or {@link #getLong()} to avoid it.
+     *
      * @return Number of the value
      */
     public Number getNumber() {
-        return number;
+        switch (kind) {
+            case PRIMITIVE_INT:
+                return (int) bits;
+            case PRIMITIVE_LONG:
+                return bits;
+            case PRIMITIVE_DOUBLE:
+                return Double.longBitsToDouble(bits);
+            case PRIMITIVE_FLOAT:
+                return Float.intBitsToFloat((int) bits);
+            case PRIMITIVE_NONE:
+                if (ref instanceof Number) {
+                    return (Number) ref;
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return Number of the value as a double or {@link Double#NaN} if the
+     * value has no number.
+     */
+    public double getDouble() {
+        switch (kind) {
+            case PRIMITIVE_INT:
+            case PRIMITIVE_LONG:
+                return bits;
+            case PRIMITIVE_DOUBLE:
+                return Double.longBitsToDouble(bits);
+            case PRIMITIVE_FLOAT:
+                return Float.intBitsToFloat((int) bits);
+            case PRIMITIVE_NONE:
+                if (ref instanceof Number) {
+                    return ((Number) ref).doubleValue();
+                }
+                return Double.NaN;
+            default:
+                return Double.NaN;
+        }
+    }
+
+    /**
+     * @return Number of the value as a long, which is truncated if the
+     * number has a fraction, or 0 if the value has no number.
+     */
+    public long getLong() {
+        switch (kind) {
+            case PRIMITIVE_INT:
+            case PRIMITIVE_LONG:
+                return bits;
+            case PRIMITIVE_DOUBLE:
+            case PRIMITIVE_FLOAT:
+                return (long) getDouble();
+            case PRIMITIVE_NONE:
+                if (ref instanceof Number) {
+                    return ((Number) ref).longValue();
+                }
+                return 0;
+            default:
+                return 0;
+        }
     }
 
     /**
      * @return Boolean of the value
      */
     public Boolean getBool() {
-        return bool;
+        if (kind == PRIMITIVE_BOOL) {
+            return bits != 0;
+        }
+        return null;
+    }
+
+    /**
+     * @return Kind of primitive the value holds, which is
+     * {@link #PRIMITIVE_NONE} if the value holds an object or nothing.
+     */
+    public byte getPrimitiveKind() {
+        return kind;
+    }
+
+    /**
+     * Booleans are held as 0 or 1, integers and longs as their value and
+     * floats and doubles as their IEEE 754 bits.
+     *
+     * @return Bits of the primitive the value holds.
+     * @see #getPrimitiveKind()
+     */
+    public long getPrimitiveBits() {
+        return bits;
     }
 
     /**
      * @return String of the value
      */
     public String getString() {
-        return string;
+        if (ref instanceof String) {
+            return (String) ref;
+        }
+        return null;
     }
 
     /**
      * @return JSON object of the value
      */
     public JsonObject getMap() {
-        return map;
+        if (ref instanceof JsonObject) {
+            return (JsonObject) ref;
+        }
+        return null;
     }
 
     /**
      * @return JSON array of the value
      */
     public JsonArray getArray() {
-        return array;
+        if (ref instanceof JsonArray) {
+            return (JsonArray) ref;
+        }
+        return null;
     }
 
     /**
@@ -387,17 +609,15 @@ public class Value {
     public String toString() {
         switch (type.toJsonString()) {
             case ValueType.JSON_NUMBER:
-                return String.valueOf(number);
+                return String.valueOf(getNumber());
             case ValueType.JSON_BOOL:
-                return String.valueOf(bool);
+                return String.valueOf(getBool());
             case ValueType.JSON_STRING:
-                return String.valueOf(string);
             case ValueType.JSON_MAP:
-                return String.valueOf(map);
             case ValueType.JSON_ARRAY:
-                return String.valueOf(array);
+                return String.valueOf(ref);
             case ValueType.JSON_BINARY:
-                return Arrays.toString(binary);
+                return Arrays.toString((byte[]) ref);
             default:
                 throw new RuntimeException("Unhandled type: " + type);
         }
@@ -412,20 +632,18 @@ public class Value {
             if (value.getType().toJsonString().equals(compare)) {
                 switch (compare) {
                     case ValueType.JSON_NUMBER:
-                        equal = objectEquals(number, value.number);
+                    case ValueType.JSON_BOOL:
+                        if (kind != PRIMITIVE_NONE || value.kind != PRIMITIVE_NONE) {
+                            equal = kind == value.kind && bits == value.bits;
+                        } else {
+                            equal = objectEquals(ref, value.ref);
+                        }
                         break;
                     case ValueType.JSON_TIME:
                     case ValueType.JSON_STRING:
-                        equal = objectEquals(string, value.string);
-                        break;
-                    case ValueType.JSON_BOOL:
-                        equal = objectEquals(bool, value.bool);
-                        break;
                     case ValueType.JSON_MAP:
-                        equal = objectEquals(map, value.map);
-                        break;
                     case ValueType.JSON_ARRAY:
-                        equal = objectEquals(array, value.array);
+                        equal = objectEquals(ref, value.ref);
                         break;
                     default:
                         String err = "Bad type: " + getType();
@@ -440,11 +658,11 @@ public class Value {
     public int hashCode() {
         int result = getType().hashCode();
         result = 31 * result + (getType().hashCode());
-        result = 31 * result + (getNumber() != null ? getNumber().hashCode() : 0);
-        result = 31 * result + (getBool() != null ? getBool().hashCode() : 0);
-        result = 31 * result + (getString() != null ? getString().hashCode() : 0);
-        result = 31 * result + (getMap() != null ? getMap().hashCode() : 0);
-        result = 31 * result + (getArray() != null ? getArray().hashCode() : 0);
+        result = 31 * result + kind;
+        result = 31 * result + (int) (bits ^ (bits >>> 32));
+        if (!(ref instanceof byte[])) {
+            result = 31 * result + (ref != null ? ref.hashCode() : 0);
+        }
         return result;
     }
 
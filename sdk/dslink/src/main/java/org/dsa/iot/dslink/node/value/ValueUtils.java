@@ -19,21 +19,10 @@ public class ValueUtils {
      * Creates a new copy of the the argument and leaves it mutable.
      */
     public static Value mutableCopy(Value arg) {
-        ValueType type = arg.getType();
-        if (ValueType.NUMBER.compare(type)) {
-            return new Value(arg.getNumber(), arg.getTimeStamp());
-        } else if (ValueType.BOOL.compare(type)) {
-            return new Value(arg.getBool(), arg.getTimeStamp());
-        } else if (ValueType.STRING.compare(type)) {
-            return new Value(arg.getString(), arg.getTimeStamp());
-        } else if (ValueType.MAP.compare(type)) {
-            return new Value(arg.getMap(), arg.getTimeStamp());
-        } else if (ValueType.ARRAY.compare(type)) {
-            return new Value(arg.getArray(), arg.getTimeStamp());
-        } else if (ValueType.BINARY.compare(type)) {
-            return new Value(arg.getBinary(), arg.getTimeStamp());
+        if (arg.getType() == null) {
+            return new Value((String) null);
         }
-        return new Value((String) null);
+        return new Value(arg);
     }
 
     /**
@@ -4,7 +4,6 @@ import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.*;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
@@ -14,6 +13,7 @@ import org.dsa.iot.dslink.provider.HttpProvider;
 import org.dsa.iot.dslink.util.URLInfo;
 import org.dsa.iot.dslink.util.http.HttpResp;
 import org.dsa.iot.shared.SharedObjects;
+import org.dsa.iot.shared.Transport;
 
 import javax.net.ssl.TrustManagerFactory;
 import java.util.Map;
@@ -35,8 +35,9 @@ public class DefaultHttpProvider extends HttpProvider {
             final HttpHandler handler = new HttpHandler();
 
             Bootstrap b = new Bootstrap();
-            b.group(SharedObjects.getLoop());
-            b.channel(NioSocketChannel.class);
+            EventLoopGroup loop = SharedObjects.getLoop();
+            b.group(loop);
+            b.channel(Transport.socketChannel(loop));
             b.handler(new Initializer(handler, url.secure));
             ChannelFuture fut = b.connect(url.host, url.port);
             Channel chan = fut.sync().channel();
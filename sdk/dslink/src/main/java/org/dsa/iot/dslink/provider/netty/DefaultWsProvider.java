@@ -2,15 +2,15 @@ package org.dsa.iot.dslink.provider.netty;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBufOutputStream;
 import io.netty.channel.*;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.codec.http.websocketx.*;
 import io.netty.handler.codec.http.websocketx.extensions.WebSocketClientExtensionHandler;
 import io.netty.handler.codec.http.websocketx.extensions.WebSocketClientExtensionHandshaker;
 import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateClientExtensionHandshaker;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
@@ -22,6 +22,7 @@ import org.dsa.iot.dslink.util.http.WsClient;
 import org.dsa.iot.dslink.util.json.EncodingFormat;
 import org.dsa.iot.dslink.util.json.JsonObject;
 import org.dsa.iot.shared.SharedObjects;
+import org.dsa.iot.shared.Transport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -58,8 +59,9 @@ public class DefaultWsProvider extends WsProvider {
         final WebSocketHandler handler = new WebSocketHandler(wsch, client);
 
         Bootstrap b = new Bootstrap();
-        b.group(SharedObjects.getLoop());
-        b.channel(NioSocketChannel.class);
+        EventLoopGroup loop = SharedObjects.getLoop();
+        b.group(loop);
+        b.channel(Transport.socketChannel(loop));
         b.handler(new ChannelInitializer<SocketChannel>() {
             @Override
             protected void initChannel(SocketChannel ch) throws Exception {
@@ -76,6 +78,9 @@ public class DefaultWsProvider extends WsProvider {
                 WebSocketClientExtensionHandshaker com
                         = new PerMessageDeflateClientExtensionHandshaker();
                 p.addLast(new WebSocketClientExtensionHandler(com));
+                // Coalesces the flushes of messages written in quick
+                // succession into fewer syscalls
+                p.addLast(new FlushConsolidationHandler(256, true));
                 p.addLast(handler);
             }
         });
@@ -129,18 +134,26 @@ public class DefaultWsProvider extends WsProvider {
                     @Override
                     public void write(EncodingFormat format,
                                       JsonObject data) {
-                        byte[] bytes = data.encode(format);
-                        ByteBuf buf = Unpooled.wrappedBuffer(bytes);
-                        WebSocketFrame frame = null;
-                        if (format == EncodingFormat.JSON) {
-                            frame = new TextWebSocketFrame(buf);
-                        } else {
+                        if (!(format == EncodingFormat.JSON
+                                || format == EncodingFormat.MSGPACK)) {
                             String err = "Unsupported encoding format: {}";
                             LOGGER.error(err, format);
+                            return;
                         }
-                        if (frame != null) {
-                            ch.writeAndFlush(frame);
+                        ByteBuf buf = ch.alloc().buffer();
+                        try {
+                            data.encode(format, new ByteBufOutputStream(buf));
+                        } catch (RuntimeException e) {
+                            buf.release();
+                            throw e;
                         }
+                        WebSocketFrame frame;
+                        if (format == EncodingFormat.JSON) {
+                            frame = new TextWebSocketFrame(buf);
+                        } else {
+                            frame = new BinaryWebSocketFrame(buf);
+                        }
+                        ch.writeAndFlush(frame);
                     }
 
                     @Override
@@ -166,20 +179,7 @@ public class DefaultWsProvider extends WsProvider {
             WebSocketFrame frame = (WebSocketFrame) msg;
             if (frame instanceof TextWebSocketFrame
                     || frame instanceof BinaryWebSocketFrame) {
-                ByteBuf content = frame.content();
-                int offset = 0;
-                int length = content.readableBytes();
-                byte[] bytes;
-                {
-                    if (content.hasArray()) {
-                        offset = content.arrayOffset();
-                        bytes = content.array();
-                    } else {
-                        bytes = new byte[length];
-                        content.readBytes(bytes);
-                    }
-                }
-                client.onData(bytes, offset, length);
+                client.onData(frame.content());
             } else if (frame instanceof PingWebSocketFrame) {
                 ByteBuf buf = frame.content().retain();
                 PongWebSocketFrame pong = new PongWebSocketFrame(buf);
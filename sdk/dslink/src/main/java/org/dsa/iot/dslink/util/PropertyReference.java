@@ -20,12 +20,50 @@ public class PropertyReference {
     /**
      * An integer property that determines the dispatch delay when a client
      * is unable to write to the network. During this delay, messages will be
-     * merged until they can be sent over the network.
+     * merged until they can be sent over the network. This is also the
+     * upper bound of the adaptive batching window used under load.
      *
-     * Default value is 75.
+     * Default value is 10.
      */
     public static final String DISPATCH_DELAY = NAMESPACE + ".dispatchDelay";
 
+    /**
+     * An integer property that determines the estimated maximum size in
+     * bytes of a single batch of outgoing messages. A single message larger
+     * than this is still sent on its own.
+     *
+     * Default value is 65536.
+     */
+    public static final String MAX_BATCH_SIZE = NAMESPACE + ".maxBatchSize";
+
+    /**
+     * An integer property that determines how long in milliseconds an ack
+     * is held back so it can be sent along with outgoing data. The ack is
+     * sent on its own if no data is written within this delay. A value of
+     * 0 or less sends acks without delay.
+     *
+     * Default value is 5.
+     */
+    public static final String ACK_DELAY = NAMESPACE + ".ackDelay";
+
+    /**
+     * An integer property that determines the minimum amount of un-acked
+     * messages allowed in flight. The ack window never shrinks below this
+     * size regardless of the measured ack round trip time.
+     *
+     * Default value is 8.
+     */
+    public static final String MIN_ACK_WINDOW = NAMESPACE + ".minAckWindow";
+
+    /**
+     * An integer property that determines the maximum amount of un-acked
+     * messages allowed in flight. The ack window grows up to this size while
+     * acks are returned without additional delay.
+     *
+     * Default value is 256.
+     */
+    public static final String MAX_ACK_WINDOW = NAMESPACE + ".maxAckWindow";
+
     /**
      * An integer property that determines the QOS queue size.  A value of 0 or less means an
      * unlimited queue.
@@ -34,6 +72,62 @@ public class PropertyReference {
      */
     public static final String QOS_QUEUE_SIZE = NAMESPACE + ".qosQueueSize";
 
+    /**
+     * An integer property that determines the size in bytes of a segment of
+     * the journal that persists QoS 3 updates while disconnected.
+     *
+     * Default value is 4194304.
+     */
+    public static final String QOS_SEGMENT_SIZE = NAMESPACE + ".qosSegmentSize";
+
+    /**
+     * An integer property that determines the approximate amount of bytes
+     * of updates queued while disconnected that are replayed per message
+     * after reconnecting. A new batch is written once the previous one was
+     * acked.
+     *
+     * Default value is 65536.
+     */
+    public static final String CATCH_UP_BATCH_SIZE = NAMESPACE + ".catchUpBatchSize";
+
+    /**
+     * An integer property that determines how many resolved request paths
+     * are cached by the node manager. Any node removal invalidates the
+     * cache. 0 disables the cache.
+     *
+     * Default value is 4096.
+     */
+    public static final String NODE_CACHE_SIZE = NAMESPACE + ".nodeCacheSize";
+
+    /**
+     * An integer property that determines how many children are sent per
+     * list response message. The children of larger nodes are streamed in
+     * pages of this size after the initial response. 0 or less sends every
+     * child in the initial response.
+     *
+     * Default value is 500.
+     */
+    public static final String LIST_PAGE_SIZE = NAMESPACE + ".listPageSize";
+
+    /**
+     * An integer property that determines how many nodes materialized by
+     * virtual node providers are kept resident. Beyond that, the least
+     * recently used nodes that are neither subscribed nor listed are
+     * evicted.
+     *
+     * Default value is 10000.
+     */
+    public static final String VIRTUAL_NODE_LIMIT = NAMESPACE + ".virtualNodeLimit";
+
+    /**
+     * A boolean property that determines whether nodes are laid out
+     * compactly. Node paths are then derived from the parent chain on each
+     * call instead of being stored, and node names are interned.
+     *
+     * Default value is false.
+     */
+    public static final String COMPACT_NODES = NAMESPACE + ".compactNodes";
+
     /**
      * A boolean property that determines the sdk should perform any
      * validations. Currently only the dslink.json is validated.
@@ -14,6 +14,7 @@ public class TimeUtils {
     private static final Map<String, TimeZone> timezones = new HashMap<String, TimeZone>();
 
     private static final ThreadLocal<DateFormat> FORMAT_TIME_ZONE;
+    private static final ThreadLocal<Formatter> FORMATTER;
     private static final ThreadLocal<DateFormat> FORMAT;
     private static final String TIME_PATTERN_TZ;
     private static final String TIME_PATTERN;
@@ -47,6 +48,12 @@ public class TimeUtils {
                 return new SimpleDateFormat(getTimePatternTz());
             }
         };
+        FORMATTER = new ThreadLocal<Formatter>() {
+            @Override
+            public Formatter initialValue() {
+                return new Formatter();
+            }
+        };
     }
 
     /**
@@ -69,12 +76,49 @@ public class TimeUtils {
         return TIME_PATTERN;
     }
 
+    /**
+     * Encodes the time with its timezone offset, see
+     * {@link #format(long, StringBuilder)}.
+     *
+     * @param time Time to encode.
+     * @return The encoded time.
+     */
     public static String format(long time) {
-        return encode(time, true).toString();
+        Formatter f = FORMATTER.get();
+        int len = f.format(time);
+        if (len < 0) {
+            return encode(time, true).toString();
+        }
+        return new String(f.chars, 0, len);
+    }
+
+    /**
+     * Encodes the time with its timezone offset in the default timezone,
+     * which produces the same output as {@link #encode(long, boolean)}.
+     * The date, hour, minute and offset are cached per thread for the
+     * current minute so only the seconds and milliseconds are encoded on
+     * every call. A change of the default timezone is picked up once the
+     * minute changes.
+     *
+     * @param time Time to encode.
+     * @param buf  The buffer to append the encoded time to.
+     * @return The buf argument.
+     */
+    public static StringBuilder format(long time, StringBuilder buf) {
+        Formatter f = FORMATTER.get();
+        int len = f.format(time);
+        if (len < 0) {
+            Calendar cal = reuseCalendar(time);
+            encode(cal, true, buf);
+            recycleCalendar(cal);
+        } else {
+            buf.append(f.chars, 0, len);
+        }
+        return buf;
     }
 
     public static String format(Date time) {
-        return encode(time.getTime(), true).toString();
+        return format(time.getTime());
     }
 
     public static Date parseTz(String time) {
@@ -575,5 +619,105 @@ public class TimeUtils {
             throw new IllegalStateException();
     }
 
+    /**
+     * Writes two digits into the array.
+     */
+    private static void writeDigits(char[] chars, int off, int value) {
+        chars[off] = (char) ('0' + (value / 10));
+        chars[off + 1] = (char) ('0' + (value % 10));
+    }
+
+    /**
+     * Encodes timestamps of the same minute by only rewriting the seconds
+     * and milliseconds after an encoded prefix.
+     */
+    private static class Formatter {
+
+        // yyyy-MM-ddTHH:mm:ss.SSS+hh:mm
+        private static final int SECONDS = 17;
+        private final char[] chars = new char[29];
+        private Calendar calendar;
+        private long minute = Long.MIN_VALUE;
+        private int length;
+
+        /**
+         * @return Length of the encoded time in the chars or -1 if the time
+         * cannot be encoded from a cached minute.
+         */
+        int format(long time) {
+            long mod = time % MILLIS_MINUTE;
+            if (mod < 0) {
+                mod += MILLIS_MINUTE;
+            }
+            long start = time - mod;
+            if (start != minute && !prepare(start)) {
+                return -1;
+            }
+            int millis = (int) mod;
+            char[] chars = this.chars;
+            writeDigits(chars, SECONDS, millis / 1000);
+            millis %= 1000;
+            chars[SECONDS + 3] = (char) ('0' + (millis / 100));
+            writeDigits(chars, SECONDS + 4, millis % 100);
+            return length;
+        }
+
+        /**
+         * Encodes everything but the seconds and milliseconds of the minute.
+         *
+         * @return Whether the minute can be cached.
+         */
+        private boolean prepare(long start) {
+            minute = Long.MIN_VALUE;
+            TimeZone tz = TimeZone.getDefault();
+            int offset = tz.getOffset(start);
+            if ((offset % MILLIS_MINUTE != 0)
+                    || (offset != tz.getOffset(start + MILLIS_MINUTE - 1))) {
+                // The local minute does not map to a single offset
+                return false;
+            }
+            Calendar cal = calendar;
+            if (cal == null) {
+                cal = Calendar.getInstance(tz);
+                calendar = cal;
+            } else {
+                cal.setTimeZone(tz);
+            }
+            cal.setTimeInMillis(start);
+            int year = cal.get(Calendar.YEAR);
+            if (year < 1000 || year > 9999
+                    || cal.get(Calendar.ERA) != GregorianCalendar.AD) {
+                return false;
+            }
+            char[] chars = this.chars;
+            writeDigits(chars, 0, year / 100);
+            writeDigits(chars, 2, year % 100);
+            chars[4] = '-';
+            writeDigits(chars, 5, cal.get(Calendar.MONTH) + 1);
+            chars[7] = '-';
+            writeDigits(chars, 8, cal.get(Calendar.DAY_OF_MONTH));
+            chars[10] = 'T';
+            writeDigits(chars, 11, cal.get(Calendar.HOUR_OF_DAY));
+            chars[13] = ':';
+            writeDigits(chars, 14, cal.get(Calendar.MINUTE));
+            chars[16] = ':';
+            chars[SECONDS + 2] = '.';
+            int off = SECONDS + 6;
+            if (offset == 0) {
+                chars[off++] = 'Z';
+            } else {
+                chars[off++] = offset < 0 ? '-' : '+';
+                offset = Math.abs(offset);
+                writeDigits(chars, off, offset / MILLIS_HOUR);
+                chars[off + 2] = ':';
+                writeDigits(chars, off + 3, (offset % MILLIS_HOUR) / MILLIS_MINUTE);
+                off += 5;
+            }
+            length = off;
+            minute = start;
+            return true;
+        }
+    }
+
 
 }
@@ -1,5 +1,6 @@
 package org.dsa.iot.dslink.util.http;
 
+import io.netty.buffer.ByteBuf;
 import org.dsa.iot.dslink.connection.NetworkClient;
 import org.dsa.iot.dslink.provider.WsProvider;
 import org.dsa.iot.dslink.util.URLInfo;
@@ -28,6 +29,27 @@ public abstract class WsClient {
 
     public abstract void onData(byte[] data, int offset, int length);
 
+    /**
+     * Called when a frame is received. The buffer is only valid for the
+     * duration of the call. By default the readable bytes are handed to
+     * {@link #onData(byte[], int, int)}, copying them only if the buffer
+     * is not backed by an array. Clients that can consume the buffer
+     * directly should override this to avoid the copy.
+     *
+     * @param data Frame content.
+     */
+    public void onData(ByteBuf data) {
+        int length = data.readableBytes();
+        if (data.hasArray()) {
+            int offset = data.arrayOffset() + data.readerIndex();
+            onData(data.array(), offset, length);
+        } else {
+            byte[] bytes = new byte[length];
+            data.getBytes(data.readerIndex(), bytes);
+            onData(bytes, 0, length);
+        }
+    }
+
     public abstract void onConnected(NetworkClient writer);
 
     public abstract void onDisconnected();
@@ -5,7 +5,8 @@ package org.dsa.iot.dslink.util.json;
  */
 public enum EncodingFormat {
 
-    JSON("json");
+    JSON("json"),
+    MSGPACK("msgpack");
 
     private final String name;
 
@@ -32,6 +33,8 @@ public enum EncodingFormat {
         format = format.toLowerCase();
         if (JSON.name.equals(format)) {
             return JSON;
+        } else if (MSGPACK.name.equals(format)) {
+            return MSGPACK;
         }
         return JSON;
     }
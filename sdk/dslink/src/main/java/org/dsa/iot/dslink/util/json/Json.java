@@ -11,9 +11,11 @@ import org.dsa.iot.dslink.util.json.decoders.ListDecoder;
 import org.dsa.iot.dslink.util.json.decoders.MapDecoder;
 import org.dsa.iot.dslink.util.json.encoders.ListEncoder;
 import org.dsa.iot.dslink.util.json.encoders.MapEncoder;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
 import java.math.BigDecimal;
@@ -27,29 +29,52 @@ import java.util.Map;
 public class Json {
 
     private static final JsonFactory JSON_FACTORY;
+    private static final JsonFactory MSGPACK_FACTORY;
 
     private Json() {
     }
 
     public static byte[] encode(EncodingFormat format,
                                 Object obj) {
-        return performEncode(format, obj, null);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        performEncode(format, obj, baos, null);
+        return baos.toByteArray();
+    }
+
+    /**
+     * Encodes the object directly into the designated stream. This avoids
+     * any intermediate buffers so the encoded data can be written straight
+     * into a network buffer.
+     *
+     * @param format Format to encode the object in.
+     * @param obj    A {@link JsonObject} or {@link JsonArray} to encode.
+     * @param out    Stream to write the encoded data to.
+     */
+    public static void encode(EncodingFormat format,
+                              Object obj,
+                              OutputStream out) {
+        performEncode(format, obj, out, null);
     }
 
     public static byte[] encodePrettily(EncodingFormat format,
                                         Object obj) {
-        return performEncode(format, obj, new DefaultPrettyPrinter());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        performEncode(format, obj, baos, new DefaultPrettyPrinter());
+        return baos.toByteArray();
     }
 
-    private static byte[] performEncode(EncodingFormat format,
-                                        Object obj,
-                                        PrettyPrinter printer) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    private static void performEncode(EncodingFormat format,
+                                      Object obj,
+                                      OutputStream out,
+                                      PrettyPrinter printer) {
         JsonEncoding enc = JsonEncoding.UTF8;
         JsonGenerator gen;
         try {
             if (format == EncodingFormat.JSON) {
-                gen = JSON_FACTORY.createGenerator(baos, enc);
+                gen = JSON_FACTORY.createGenerator(out, enc);
+                gen.setPrettyPrinter(printer);
+            } else if (format == EncodingFormat.MSGPACK) {
+                gen = MSGPACK_FACTORY.createGenerator(out, enc);
             } else {
                 throw new UnsupportedOperationException(format.toJson());
             }
@@ -57,14 +82,12 @@ public class Json {
             throw new RuntimeException(e);
         }
         try {
-            gen.setPrettyPrinter(printer);
             if (obj instanceof JsonObject) {
                 MapEncoder.write(gen, (JsonObject) obj);
             } else if (obj instanceof JsonArray) {
                 ListEncoder.write(gen, (JsonArray) obj);
             }
             gen.close();
-            return baos.toByteArray();
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -76,6 +99,8 @@ public class Json {
                                                 int length) {
         if (format == EncodingFormat.JSON) {
             return MapDecoder.decode(JSON_FACTORY, content, offset, length);
+        } else if (format == EncodingFormat.MSGPACK) {
+            return MapDecoder.decode(MSGPACK_FACTORY, content, offset, length);
         }
         throw new UnsupportedOperationException(format.toJson());
     }
@@ -86,6 +111,47 @@ public class Json {
                                           int length) {
         if (format == EncodingFormat.JSON) {
             return ListDecoder.decode(JSON_FACTORY, content, offset, length);
+        } else if (format == EncodingFormat.MSGPACK) {
+            return ListDecoder.decode(MSGPACK_FACTORY, content, offset, length);
+        }
+        throw new UnsupportedOperationException(format.toJson());
+    }
+
+    public static Map<String, Object> decodeMap(EncodingFormat format,
+                                                InputStream in) {
+        if (format == EncodingFormat.JSON) {
+            return MapDecoder.decode(JSON_FACTORY, in);
+        } else if (format == EncodingFormat.MSGPACK) {
+            return MapDecoder.decode(MSGPACK_FACTORY, in);
+        }
+        throw new UnsupportedOperationException(format.toJson());
+    }
+
+    public static List<Object> decodeList(EncodingFormat format,
+                                          InputStream in) {
+        if (format == EncodingFormat.JSON) {
+            return ListDecoder.decode(JSON_FACTORY, in);
+        } else if (format == EncodingFormat.MSGPACK) {
+            return ListDecoder.decode(MSGPACK_FACTORY, in);
+        }
+        throw new UnsupportedOperationException(format.toJson());
+    }
+
+    /**
+     * Creates a streaming parser over the designated input. This allows
+     * callers to walk the encoded data without building a full tree.
+     *
+     * @param format Format the data is encoded in.
+     * @param in     Encoded data.
+     * @return A parser for the designated format.
+     * @throws IOException If the parser could not be created.
+     */
+    public static JsonParser createParser(EncodingFormat format,
+                                          InputStream in) throws IOException {
+        if (format == EncodingFormat.JSON) {
+            return JSON_FACTORY.createParser(in);
+        } else if (format == EncodingFormat.MSGPACK) {
+            return MSGPACK_FACTORY.createParser(in);
         }
         throw new UnsupportedOperationException(format.toJson());
     }
@@ -165,5 +231,6 @@ public class Json {
                 return gen;
             }
         };
+        MSGPACK_FACTORY = new MessagePackFactory();
     }
 }
@@ -2,6 +2,7 @@ package org.dsa.iot.dslink.util.json;
 
 import io.netty.util.CharsetUtil;
 
+import java.io.InputStream;
 import java.util.*;
 
 /**
@@ -10,10 +11,17 @@ import java.util.*;
 @SuppressWarnings("unchecked")
 public class JsonArray implements Iterable<Object> {
 
+    /**
+     * Initial capacity of the backing list for new and decoded arrays. Most
+     * arrays on the wire are small, such as {@code [sid, value, ts]} update
+     * tuples, so the list starts small and only grows when needed.
+     */
+    public static final int INITIAL_CAPACITY = 4;
+
     private final List<Object> list;
 
     public JsonArray() {
-        this(new LinkedList<>());
+        this(new ArrayList<>(INITIAL_CAPACITY));
     }
 
     public JsonArray(String content) {
@@ -32,6 +40,11 @@ public class JsonArray implements Iterable<Object> {
         this(Json.decodeList(format, content, offset, length));
     }
 
+    public JsonArray(EncodingFormat format,
+                     InputStream in) {
+        this(Json.decodeList(format, in));
+    }
+
     public JsonArray(List list) {
         if (list == null) {
             throw new NullPointerException("list");
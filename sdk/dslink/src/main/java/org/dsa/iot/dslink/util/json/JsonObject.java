@@ -2,6 +2,8 @@ package org.dsa.iot.dslink.util.json;
 
 import io.netty.util.CharsetUtil;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.*;
 
 /**
@@ -32,6 +34,11 @@ public class JsonObject implements Iterable<Map.Entry<String, Object>> {
         this(Json.decodeMap(format, json, offset, length));
     }
 
+    public JsonObject(EncodingFormat format,
+                      InputStream in) {
+        this(Json.decodeMap(format, in));
+    }
+
     public JsonObject(Map<String, Object> map) {
         if (map == null) {
             throw new NullPointerException("map");
@@ -47,6 +54,10 @@ public class JsonObject implements Iterable<Map.Entry<String, Object>> {
         return Json.encode(format, this);
     }
 
+    public void encode(EncodingFormat format, OutputStream out) {
+        Json.encode(format, this, out);
+    }
+
     public byte[] encodePrettily() {
         return encodePrettily(EncodingFormat.JSON);
     }
@@ -7,8 +7,9 @@ import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -21,7 +22,7 @@ public class ListDecoder {
                                       byte[] content,
                                       int offset,
                                       int length) {
-        List<Object> list = new LinkedList<>();
+        List<Object> list = new ArrayList<>(JsonArray.INITIAL_CAPACITY);
         JsonParser parser = null;
         try {
             parser = factory.createParser(content, offset, length);
@@ -40,34 +41,67 @@ public class ListDecoder {
         return list;
     }
 
+    public static List<Object> decode(JsonFactory factory,
+                                      InputStream in) {
+        List<Object> list = new ArrayList<>(JsonArray.INITIAL_CAPACITY);
+        JsonParser parser = null;
+        try {
+            parser = factory.createParser(in);
+            parser.nextToken();
+            performDecodeList(list, parser);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (parser != null) {
+                try {
+                    parser.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Decodes the value the parser is currently positioned at. Arrays and
+     * objects are decoded in full, leaving the parser at their end token.
+     *
+     * @param parser Parser positioned at a value token.
+     * @return Decoded value.
+     * @throws IOException If the value could not be read.
+     */
+    public static Object decodeValue(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        } else if (token == JsonToken.VALUE_FALSE) {
+            return false;
+        } else if (token == JsonToken.VALUE_TRUE) {
+            return true;
+        } else if (token == JsonToken.VALUE_NUMBER_INT
+                || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getNumberValue();
+        } else if (token == JsonToken.VALUE_EMBEDDED_OBJECT) {
+            return parser.getBinaryValue();
+        } else if (token == JsonToken.START_ARRAY) {
+            List<Object> list = new ArrayList<>(JsonArray.INITIAL_CAPACITY);
+            performDecodeList(list, parser);
+            return new JsonArray(list);
+        } else if (token == JsonToken.START_OBJECT) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            MapDecoder.performDecodeMap(map, parser);
+            return new JsonObject(map);
+        }
+        return null;
+    }
+
     static void performDecodeList(List<Object> in,
                                           JsonParser parser)
             throws IOException {
         JsonToken token;
         while (!((token = parser.nextToken()) == JsonToken.END_ARRAY
                 || token == null)) {
-            if (token == JsonToken.VALUE_NULL) {
-                in.add(null);
-            } else if (token == JsonToken.VALUE_STRING) {
-                in.add(parser.getText());
-            } else if (token == JsonToken.VALUE_FALSE) {
-                in.add(false);
-            } else if (token == JsonToken.VALUE_TRUE) {
-                in.add(true);
-            } else if (token == JsonToken.VALUE_NUMBER_INT
-                    || token == JsonToken.VALUE_NUMBER_FLOAT) {
-                in.add(parser.getNumberValue());
-            } else if (token == JsonToken.VALUE_EMBEDDED_OBJECT) {
-                in.add(parser.getBinaryValue());
-            } else if (token == JsonToken.START_ARRAY) {
-                List<Object> list = new LinkedList<>();
-                performDecodeList(list, parser);
-                in.add(new JsonArray(list));
-            } else if (token == JsonToken.START_OBJECT) {
-                Map<String, Object> map = new LinkedHashMap<>();
-                MapDecoder.performDecodeMap(map, parser);
-                in.add(new JsonObject(map));
-            }
+            in.add(decodeValue(parser));
         }
     }
 }
@@ -0,0 +1,51 @@
+package org.dsa.iot.dslink.connection;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the ack window sizing.
+ */
+public class FlowControllerTest {
+
+    @Test
+    public void growsOnFastAcks() {
+        FlowController flow = new FlowController();
+        int start = flow.getWindowSize();
+        Assert.assertEquals(flow.getMinWindowSize(), start);
+        Assert.assertTrue(flow.getRtt() < 0);
+
+        int lastAck = 0;
+        for (int i = 1; i <= 64; i++) {
+            flow.onSend(i);
+            flow.onAck(i, lastAck, i);
+            lastAck = i;
+        }
+        Assert.assertTrue(flow.getWindowSize() > start);
+        Assert.assertTrue(flow.getWindowSize() <= flow.getMaxWindowSize());
+        Assert.assertTrue(flow.getRtt() >= 0);
+    }
+
+    @Test
+    public void resetForgetsMeasurements() {
+        FlowController flow = new FlowController();
+        for (int i = 1; i <= 64; i++) {
+            flow.onSend(i);
+            flow.onAck(i, i - 1, i);
+        }
+        flow.reset();
+        Assert.assertEquals(flow.getMinWindowSize(), flow.getWindowSize());
+        Assert.assertTrue(flow.getRtt() < 0);
+        Assert.assertTrue(flow.getMinRtt() < 0);
+    }
+
+    @Test
+    public void ignoresStaleAcks() {
+        FlowController flow = new FlowController();
+        flow.onSend(1);
+        flow.onAck(1, 1, 1);
+        flow.onAck(5, 0, 1);
+        Assert.assertTrue(flow.getRtt() < 0);
+        Assert.assertEquals(flow.getMinWindowSize(), flow.getWindowSize());
+    }
+}
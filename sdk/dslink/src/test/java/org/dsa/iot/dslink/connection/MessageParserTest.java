@@ -0,0 +1,112 @@
+package org.dsa.iot.dslink.connection;
+
+import org.dsa.iot.dslink.util.json.EncodingFormat;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the streaming message parser.
+ */
+public class MessageParserTest {
+
+    @Test
+    public void envelope() {
+        for (EncodingFormat format : EncodingFormat.values()) {
+            JsonArray responses = new JsonArray();
+            responses.add(new JsonObject().put("rid", 1).put("stream", "open"));
+            {
+                JsonArray updates = new JsonArray();
+                updates.add(new JsonArray().add(5).add(1.5).add("ts1"));
+                JsonObject update = new JsonObject();
+                update.put("sid", 6);
+                update.put("value", "str");
+                update.put("ts", "ts2");
+                update.put("count", 2);
+                updates.add(update);
+                responses.add(new JsonObject().put("rid", 0).put("updates", updates));
+            }
+
+            JsonObject obj = new JsonObject();
+            obj.put("msg", 3);
+            obj.put("ack", 2);
+            obj.put("responses", responses);
+            obj.put("requests", new JsonArray().add(new JsonObject().put("rid", 4)));
+
+            Listener listener = new Listener();
+            byte[] bytes = obj.encode(format);
+            MessageParser msg = MessageParser.parse(format,
+                    new ByteArrayInputStream(bytes), listener);
+
+            Assert.assertEquals(Integer.valueOf(3), msg.getMsgId());
+            Assert.assertEquals(Integer.valueOf(2), msg.getAckId());
+            Assert.assertFalse(msg.hasPing());
+            Assert.assertTrue(msg.hasResponses());
+            Assert.assertEquals(1, msg.getRequests().size());
+
+            Assert.assertEquals(1, listener.responses.size());
+            JsonObject resp = listener.responses.get(0);
+            Assert.assertEquals(1, resp.<Number>get("rid").intValue());
+            Assert.assertEquals("open", resp.get("stream"));
+
+            Assert.assertEquals(2, listener.updates.size());
+            Object[] first = listener.updates.get(0);
+            Assert.assertEquals(5, first[0]);
+            Assert.assertEquals(1.5, ((Number) first[1]).doubleValue(), 0);
+            Assert.assertEquals("ts1", first[2]);
+            Assert.assertNull(first[3]);
+
+            Object[] second = listener.updates.get(1);
+            Assert.assertEquals(6, second[0]);
+            Assert.assertEquals("str", second[1]);
+            Assert.assertEquals("ts2", second[2]);
+            Assert.assertEquals(2, ((Number) second[3]).intValue());
+        }
+    }
+
+    @Test
+    public void updatesBeforeRid() {
+        String json = "{\"responses\":[{\"updates\":[[1,2,\"ts\"]],\"rid\":0}]}";
+        Listener listener = new Listener();
+        MessageParser.parse(EncodingFormat.JSON,
+                new ByteArrayInputStream(json.getBytes()), listener);
+        Assert.assertEquals(0, listener.updates.size());
+        Assert.assertEquals(1, listener.responses.size());
+        JsonArray updates = listener.responses.get(0).get("updates");
+        Assert.assertEquals(1, updates.size());
+    }
+
+    @Test
+    public void ping() {
+        String json = "{\"ping\":7}";
+        MessageParser msg = MessageParser.parse(EncodingFormat.JSON,
+                new ByteArrayInputStream(json.getBytes()), null);
+        Assert.assertTrue(msg.hasPing());
+        Assert.assertEquals(7, msg.getPing());
+        Assert.assertNull(msg.getMsgId());
+        Assert.assertFalse(msg.hasResponses());
+    }
+
+    private static class Listener implements MessageParser.ResponseListener {
+
+        private final List<JsonObject> responses = new ArrayList<>();
+        private final List<Object[]> updates = new ArrayList<>();
+
+        @Override
+        public void onResponse(JsonObject response) {
+            responses.add(response);
+        }
+
+        @Override
+        public void onSubscriptionUpdate(int sid, Object value, String ts,
+                                         Number count, Number sum,
+                                         Number min, Number max) {
+            updates.add(new Object[] {sid, value, ts, count});
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.dsa.iot.dslink.connection;
+
+import org.dsa.iot.dslink.node.MessageGenerator;
+import org.dsa.iot.dslink.util.json.EncodingFormat;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the outgoing write queue.
+ */
+public class QueuedWriteManagerTest {
+
+    @Test
+    public void concurrentPublishers() throws InterruptedException {
+        final int threads = 8;
+        final int perThread = 500;
+        final Client client = new Client();
+        final Tracker tracker = new Tracker();
+        final QueuedWriteManager manager = new QueuedWriteManager(client,
+                tracker, EncodingFormat.JSON, "responses");
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            final int rid = i + 1;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    for (int j = 0; j < perThread; j++) {
+                        JsonObject obj = new JsonObject();
+                        obj.put("rid", rid);
+                        JsonArray updates = new JsonArray();
+                        updates.add(new JsonArray().add(j));
+                        obj.put("updates", updates);
+                        manager.post(obj, true);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        long end = System.currentTimeMillis() + 10000;
+        while (client.countUpdates() < threads * perThread
+                && System.currentTimeMillis() < end) {
+            tracker.ackAll();
+            manager.ackReceived();
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(threads * perThread, client.countUpdates());
+    }
+
+    @Test
+    public void piggybacksAck() throws InterruptedException {
+        Client client = new Client();
+        Tracker tracker = new Tracker();
+        tracker.pendingAck = 5;
+        QueuedWriteManager manager = new QueuedWriteManager(client,
+                tracker, EncodingFormat.JSON, "responses");
+        manager.post(new JsonObject().put("rid", 1), true);
+
+        long end = System.currentTimeMillis() + 10000;
+        while (client.written.isEmpty() && System.currentTimeMillis() < end) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(1, client.written.size());
+        Assert.assertEquals(5, (int) client.written.get(0).<Integer>get("ack"));
+        Assert.assertNull(tracker.takePendingAck());
+    }
+
+    @Test
+    public void generatorsFollowQueuedMessages() throws InterruptedException {
+        final Client client = new Client();
+        QueuedWriteManager manager = new QueuedWriteManager(client,
+                new Tracker(), EncodingFormat.JSON, "responses");
+        manager.post(new JsonObject().put("rid", 1), true);
+        final boolean[] generated = new boolean[1];
+        MessageGenerator generator = new MessageGenerator() {
+            @Override
+            public JsonObject getMessage(int lastAckId) {
+                generated[0] = true;
+                return new JsonObject().put("rid", 2);
+            }
+
+            @Override
+            public void retry() {
+            }
+
+            @Override
+            public void setMessageId(int messageId) {
+            }
+        };
+        long end = System.currentTimeMillis() + 10000;
+        while (!generated[0] && System.currentTimeMillis() < end) {
+            manager.write(generator);
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(2, client.written.size());
+        Assert.assertEquals(1, getRid(client.written.get(0)));
+        Assert.assertEquals(2, getRid(client.written.get(1)));
+    }
+
+    @Test
+    public void closedRejectsPosts() {
+        QueuedWriteManager manager = new QueuedWriteManager(new Client(),
+                new Tracker(), EncodingFormat.JSON, "responses");
+        manager.close();
+        Assert.assertFalse(manager.post(new JsonObject().put("rid", 1), true));
+    }
+
+    private static int getRid(JsonObject written) {
+        JsonArray responses = written.get("responses");
+        Assert.assertEquals(1, responses.size());
+        JsonObject resp = responses.get(0);
+        return resp.<Integer>get("rid");
+    }
+
+    private static class Client implements NetworkClient {
+
+        private final List<JsonObject> written = new CopyOnWriteArrayList<>();
+
+        @Override
+        public boolean writable() {
+            return true;
+        }
+
+        @Override
+        public void write(EncodingFormat format, JsonObject data) {
+            written.add(data);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        int countUpdates() {
+            int count = 0;
+            for (JsonObject obj : written) {
+                JsonArray responses = obj.get("responses");
+                for (Object o : responses) {
+                    JsonArray updates = ((JsonObject) o).get("updates");
+                    count += updates.size();
+                }
+            }
+            return count;
+        }
+    }
+
+    private static class Tracker implements FlowTracker {
+
+        private int lastAck;
+        private int msgId;
+        private Integer pendingAck;
+
+        @Override
+        public synchronized void ackReceived(int ack) {
+            lastAck = Math.max(lastAck, ack);
+        }
+
+        @Override
+        public synchronized int incrementMessageId() {
+            return ++msgId;
+        }
+
+        @Override
+        public synchronized int lastAckReceived() {
+            return lastAck;
+        }
+
+        @Override
+        public synchronized int missingAckCount() {
+            return msgId - lastAck;
+        }
+
+        @Override
+        public int ackWindowSize() {
+            return 8;
+        }
+
+        @Override
+        public synchronized Integer takePendingAck() {
+            Integer ack = pendingAck;
+            pendingAck = null;
+            return ack;
+        }
+
+        synchronized void ackAll() {
+            lastAck = msgId;
+        }
+    }
+}
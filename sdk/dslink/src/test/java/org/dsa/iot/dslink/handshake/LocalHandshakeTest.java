@@ -2,6 +2,8 @@ package org.dsa.iot.dslink.handshake;
 
 import org.dsa.iot.dslink.config.Configuration;
 import org.dsa.iot.dslink.connection.ConnectionType;
+import org.dsa.iot.dslink.util.json.EncodingFormat;
+import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
 import org.junit.Assert;
 import org.junit.Test;
@@ -40,5 +42,9 @@ public class LocalHandshakeTest {
         Assert.assertTrue(object.contains("publicKey"));
         Assert.assertTrue(object.contains("isRequester"));
         Assert.assertTrue(object.contains("isResponder"));
+
+        JsonArray formats = object.get("formats");
+        Assert.assertNotNull(formats);
+        Assert.assertEquals(EncodingFormat.values().length, formats.size());
     }
 }
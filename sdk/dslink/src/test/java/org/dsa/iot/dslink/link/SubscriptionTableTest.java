@@ -0,0 +1,149 @@
+package org.dsa.iot.dslink.link;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.dsa.iot.dslink.node.value.SubscriptionValue;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the subscription table of requesters.
+ */
+public class SubscriptionTableTest {
+
+    @Test
+    public void sidsReusedOnceReleased() {
+        SubscriptionTable table = new SubscriptionTable();
+        SubscriptionTable.Entry a = table.subscribe("/a", 0, null);
+        SubscriptionTable.Entry b = table.subscribe("/b", 0, null);
+        Assert.assertEquals(0, a.getSid());
+        Assert.assertEquals(1, b.getSid());
+
+        Assert.assertSame(a, table.remove("/a"));
+        Assert.assertNull(table.get(0));
+        // Not released yet, late updates of /a must not reach /c
+        SubscriptionTable.Entry c = table.subscribe("/c", 0, null);
+        Assert.assertEquals(2, c.getSid());
+
+        table.release(new int[] { 0 }, table.generation());
+        SubscriptionTable.Entry d = table.subscribe("/d", 0, null);
+        Assert.assertEquals(0, d.getSid());
+        Assert.assertSame(d, table.get(0));
+        Assert.assertSame(d, table.get("/d"));
+    }
+
+    @Test
+    public void staleReleaseIgnored() {
+        SubscriptionTable table = new SubscriptionTable();
+        table.subscribe("/a", 0, null);
+        table.remove("/a");
+        int generation = table.generation();
+        table.clear();
+
+        SubscriptionTable.Entry b = table.subscribe("/b", 0, null);
+        Assert.assertEquals(0, b.getSid());
+        table.release(new int[] { 0 }, generation);
+        Assert.assertEquals(1, table.subscribe("/c", 0, null).getSid());
+    }
+
+    @Test
+    public void multipleHandlers() {
+        SubscriptionTable table = new SubscriptionTable();
+        CountingHandler first = new CountingHandler();
+        CountingHandler second = new CountingHandler();
+        SubscriptionTable.Entry entry = table.subscribe("/a", 0, first);
+        Assert.assertNotNull(entry);
+        Assert.assertNull(table.subscribe("/a", 0, second));
+        Assert.assertNull(table.subscribe("/a", 0, second));
+
+        entry.handle(new SubscriptionValue("/a", new Value(1), null, null, null, null));
+        Assert.assertEquals(1, first.count.get());
+        Assert.assertEquals(1, second.count.get());
+
+        Assert.assertNull(table.unsubscribe("/a", first));
+        Assert.assertNull(table.unsubscribe("/a", first));
+        Assert.assertSame(entry, table.get(entry.getSid()));
+        Assert.assertSame(entry, table.unsubscribe("/a", second));
+        Assert.assertNull(table.get("/a"));
+        Assert.assertEquals(0, table.size());
+    }
+
+    @Test
+    public void qosChangeResubscribes() {
+        SubscriptionTable table = new SubscriptionTable();
+        SubscriptionTable.Entry entry = table.subscribe("/a", 0, new CountingHandler());
+        Assert.assertNull(table.subscribe("/a", 0, new CountingHandler()));
+        Assert.assertSame(entry, table.subscribe("/a", 2, new CountingHandler()));
+        Assert.assertEquals(2, entry.getQos());
+        Assert.assertEquals(3, entry.size());
+        Assert.assertNull(table.subscribe("/a", 2, null));
+    }
+
+    @Test
+    public void highestQosApplies() {
+        SubscriptionTable table = new SubscriptionTable();
+        CountingHandler durable = new CountingHandler();
+        CountingHandler plain = new CountingHandler();
+        SubscriptionTable.Entry entry = table.subscribe("/a", 3, durable);
+        // A lower level does not downgrade the subscription
+        Assert.assertNull(table.subscribe("/a", 0, plain));
+        Assert.assertEquals(3, entry.getQos());
+
+        // Detaching the durable handler drops the level to what is left
+        Assert.assertSame(entry, table.unsubscribe("/a", durable));
+        Assert.assertTrue(entry.hasHandlers());
+        Assert.assertEquals(0, entry.getQos());
+        Assert.assertSame(entry, table.get("/a"));
+
+        // A handler lowering its own level is honored too
+        Assert.assertSame(entry, table.subscribe("/a", 2, plain));
+        Assert.assertSame(entry, table.subscribe("/a", 1, plain));
+        Assert.assertEquals(1, entry.getQos());
+        Assert.assertEquals(1, entry.size());
+    }
+
+    @Test
+    public void currentValueSentOnAttach() {
+        SubscriptionTable table = new SubscriptionTable();
+        CountingHandler first = new CountingHandler();
+        SubscriptionTable.Entry entry = table.subscribe("/a", 0, first);
+        entry.handle(new SubscriptionValue("/a", new Value(1), null, null, null, null));
+
+        CountingHandler second = new CountingHandler();
+        table.subscribe("/a", 0, second);
+        Assert.assertEquals(1, second.count.get());
+        Assert.assertEquals(1, second.last.getValue().getNumber().intValue());
+        // Not sent again to handlers already attached
+        table.subscribe("/a", 0, first);
+        Assert.assertEquals(1, first.count.get());
+        Assert.assertEquals(1, second.count.get());
+    }
+
+    @Test
+    public void failingHandlerIsolated() {
+        SubscriptionTable table = new SubscriptionTable();
+        CountingHandler counter = new CountingHandler();
+        SubscriptionTable.Entry entry = table.subscribe("/a", 0, new Handler<SubscriptionValue>() {
+            @Override
+            public void handle(SubscriptionValue event) {
+                throw new RuntimeException("fail");
+            }
+        });
+        table.subscribe("/a", 0, counter);
+        entry.handle(new SubscriptionValue("/a", new Value(1), null, null, null, null));
+        Assert.assertEquals(1, counter.count.get());
+    }
+
+    private static class CountingHandler implements Handler<SubscriptionValue> {
+
+        private final AtomicInteger count = new AtomicInteger();
+        private volatile SubscriptionValue last;
+
+        @Override
+        public void handle(SubscriptionValue event) {
+            last = event;
+            count.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package org.dsa.iot.dslink.methods.responses;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.dsa.iot.dslink.DSLink;
+import org.dsa.iot.dslink.DSLinkHandler;
+import org.dsa.iot.dslink.connection.DataHandler;
+import org.dsa.iot.dslink.connection.NetworkClient;
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.util.json.EncodingFormat;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the paging of large list responses.
+ */
+public class ListResponseTest {
+
+    // More than the default page size of 500
+    private static final int CHILDREN = 1200;
+
+    @Test
+    public void pagesFollowInitialResponse() throws InterruptedException {
+        Client client = new Client();
+        DSLink link = createLink(client);
+        Node parent = createParent(link);
+
+        // Held back by the writer until every change below was made
+        client.writable = false;
+        ListResponse resp = new ListResponse(link, link.getSubscriptionManager(),
+                1, parent, parent.getPath());
+        // The pager writes the initial response, no empty stub is returned
+        Assert.assertNull(resp.getJsonResponse(new JsonObject()));
+        parent.createChild("added", false).build();
+        parent.removeChild("c0", false);
+        Thread.sleep(50);
+        Assert.assertTrue(client.written.isEmpty());
+
+        client.writable = true;
+        List<JsonObject> resps = awaitUpdates(link, client, 1, CHILDREN + 2);
+        Assert.assertTrue(resps.size() >= 3);
+        JsonArray first = resps.get(0).get("updates");
+        Assert.assertEquals("$is", ((JsonArray) first.get(0)).get(0));
+
+        // Every child is listed once before the changes held back
+        Set<String> listed = new HashSet<>();
+        List<Object> updates = flatten(resps);
+        int i = 0;
+        for (; listed.size() < CHILDREN; i++) {
+            Object update = updates.get(i);
+            if (update instanceof JsonArray) {
+                String name = ((JsonArray) update).get(0);
+                if (!name.startsWith("$") && !name.startsWith("@")) {
+                    Assert.assertTrue(listed.add(name));
+                }
+            } else {
+                Assert.fail("Change written before the children: " + update);
+            }
+        }
+        for (int j = 0; j < CHILDREN; j++) {
+            Assert.assertTrue(listed.contains("c" + j));
+        }
+        Assert.assertEquals(i + 2, updates.size());
+        Assert.assertEquals("added", ((JsonArray) updates.get(i)).get(0));
+        JsonObject removed = (JsonObject) updates.get(i + 1);
+        Assert.assertEquals("c0", removed.get("name"));
+        Assert.assertEquals("remove", removed.get("change"));
+    }
+
+    @Test
+    public void closeStopsPaging() throws InterruptedException {
+        Client client = new Client();
+        DSLink link = createLink(client);
+        Node parent = createParent(link);
+
+        client.writable = false;
+        ListResponse resp = new ListResponse(link, link.getSubscriptionManager(),
+                1, parent, parent.getPath());
+        Assert.assertNull(resp.getJsonResponse(new JsonObject()));
+        parent.createChild("added", false).build();
+        resp.getCloseResponse();
+
+        client.writable = true;
+        JsonObject marker = new JsonObject();
+        marker.put("rid", 2);
+        marker.put("updates", new JsonArray());
+        link.getWriter().writeResponse(marker);
+        awaitUpdates(link, client, 2, 0);
+        // Gives a pending page retry the chance to run
+        Thread.sleep(50);
+        Assert.assertTrue(getResponses(client, 1).isEmpty());
+    }
+
+    private static DSLink createLink(Client client) {
+        DSLink link = new DSLink(new DSLinkHandler() {
+        }, false, "/") {
+        };
+        DataHandler handler = new DataHandler();
+        handler.setClient(client, EncodingFormat.JSON);
+        link.setWriter(handler);
+        return link;
+    }
+
+    private static Node createParent(DSLink link) {
+        Node parent = link.getNodeManager().createRootNode("parent").build();
+        for (int i = 0; i < CHILDREN; i++) {
+            parent.createChild("c" + i, false).build();
+        }
+        return parent;
+    }
+
+    /**
+     * Waits until the stream wrote the expected amount of child updates, acking
+     * every message on the way.
+     */
+    private static List<JsonObject> awaitUpdates(DSLink link, Client client,
+                                                 int rid, int count)
+                                                        throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < end) {
+            Integer msg = client.lastMsg;
+            if (msg != null) {
+                link.getWriter().ackReceived(msg);
+            }
+            List<JsonObject> resps = getResponses(client, rid);
+            if (!resps.isEmpty() && countChildUpdates(resps) >= count) {
+                return resps;
+            }
+            Thread.sleep(5);
+        }
+        Assert.fail("Updates of " + rid + " never written");
+        return null;
+    }
+
+    private static List<JsonObject> getResponses(Client client, int rid) {
+        List<JsonObject> resps = new ArrayList<>();
+        for (JsonObject obj : client.written) {
+            JsonArray array = obj.get("responses");
+            if (array == null) {
+                continue;
+            }
+            for (Object o : array) {
+                JsonObject resp = (JsonObject) o;
+                if (rid == resp.<Integer>get("rid")) {
+                    resps.add(resp);
+                }
+            }
+        }
+        return resps;
+    }
+
+    private static int countChildUpdates(List<JsonObject> resps) {
+        int count = 0;
+        for (Object update : flatten(resps)) {
+            if (update instanceof JsonArray) {
+                String name = ((JsonArray) update).get(0);
+                if (name.startsWith("$") || name.startsWith("@")) {
+                    continue;
+                }
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private static List<Object> flatten(List<JsonObject> resps) {
+        List<Object> updates = new ArrayList<>();
+        for (JsonObject resp : resps) {
+            JsonArray array = resp.get("updates");
+            for (Object update : array) {
+                updates.add(update);
+            }
+        }
+        return updates;
+    }
+
+    private static class Client implements NetworkClient {
+
+        private final List<JsonObject> written = new CopyOnWriteArrayList<>();
+        private volatile boolean writable = true;
+        private volatile Integer lastMsg;
+
+        @Override
+        public boolean writable() {
+            return writable;
+        }
+
+        @Override
+        public void write(EncodingFormat format, JsonObject data) {
+            written.add(data);
+            Integer msg = data.get("msg");
+            if (msg != null) {
+                lastMsg = msg;
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+    }
+}
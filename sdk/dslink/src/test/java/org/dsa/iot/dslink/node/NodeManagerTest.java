@@ -39,6 +39,44 @@ public class NodeManagerTest {
         manager.getNode("/A");
     }
 
+    /**
+     * Tests that cached paths do not outlive the removal of an ancestor.
+     */
+    @Test
+    public void cachedRemovals() {
+        NodeManager manager = new NodeManager(null, "node");
+        Node a = manager.createRootNode("A").build();
+        Node b = a.createChild("B", false).build();
+        Assert.assertSame(b, manager.getNode("/A/B").getNode());
+        Assert.assertSame(b, manager.getNode("/A/B").getNode());
+
+        manager.getSuperRoot().removeChild("A", false);
+        Assert.assertNull(manager.getNode("/A/B", false, false).getNode());
+
+        Node c = manager.createRootNode("A").build()
+                .createChild("B", false).build();
+        Assert.assertNotSame(b, c);
+        Assert.assertSame(c, manager.getNode("/A/B").getNode());
+    }
+
+    @Test
+    public void references() {
+        NodeManager manager = new NodeManager(null, "node");
+        Node a = manager.createRootNode("A").build();
+
+        NodePair pair = manager.getNode("/A/$type");
+        Assert.assertSame(a, pair.getNode());
+        Assert.assertEquals("$type", pair.getReference());
+
+        pair = manager.getNode("@attr");
+        Assert.assertSame(manager.getSuperRoot(), pair.getNode());
+        Assert.assertEquals("@attr", pair.getReference());
+
+        pair = manager.getNode("/A/B/C", true);
+        Assert.assertEquals("/A/B/C", pair.getNode().getPath());
+        Assert.assertNull(pair.getReference());
+    }
+
     @Test(expected = NullPointerException.class)
     public void nullPath() {
         NodeManager manager = new NodeManager(null, "node");
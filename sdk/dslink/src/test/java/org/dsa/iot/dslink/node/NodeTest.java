@@ -1,5 +1,8 @@
 package org.dsa.iot.dslink.node;
 
+import java.util.Collections;
+import java.util.Set;
+import org.dsa.iot.dslink.node.value.Value;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -63,4 +66,55 @@ public class NodeTest {
         Assert.assertNull(node.getAttributes());
         Assert.assertNull(node.getAttribute("nothing"));
     }
+
+    /**
+     * Ensures that readers keep a consistent snapshot of the interfaces.
+     */
+    @Test
+    public void interfaceSnapshots() {
+        Node node = new Node("Test", null, null);
+        node.setInterfaces("a|b");
+        Set<String> snapshot = node.getInterfaces();
+        node.addInterface("c");
+        node.removeInterface("a");
+        Assert.assertEquals(2, snapshot.size());
+        Assert.assertTrue(snapshot.contains("a"));
+        Assert.assertEquals(2, node.getInterfaces().size());
+        Assert.assertTrue(node.getInterfaces().contains("c"));
+        Assert.assertFalse(node.getInterfaces().contains("a"));
+    }
+
+    /**
+     * Ensures that paths derived from the parent chain match the stored
+     * paths.
+     */
+    @Test
+    public void derivedPaths() {
+        NodeManager manager = new NodeManager(null, "node");
+        Node node = manager.createRootNode("A").build();
+        Assert.assertEquals("/A", node.buildPath());
+        node = node.createChild("B", false).build().createChild("C", false).build();
+        Assert.assertEquals(node.getPath(), node.buildPath());
+        Assert.assertEquals("/A", new Node("A", null, null).buildPath());
+    }
+
+    /**
+     * Ensures that metadata maps behave like maps across writes.
+     */
+    @Test
+    public void metaMapWrites() {
+        MetaMap map = MetaMap.EMPTY.with("a", new Value(1)).with("b", new Value(2));
+        MetaMap snapshot = map;
+        map = map.with("a", new Value(3));
+        Assert.assertEquals(new Value(1), snapshot.get("a"));
+        Assert.assertEquals(new Value(3), map.get("a"));
+        Assert.assertEquals(2, map.size());
+
+        map = map.without("a");
+        Assert.assertSame(map, map.without("a"));
+        Assert.assertNull(map.get("a"));
+        Assert.assertEquals(new Value(2), map.get("b"));
+        Assert.assertEquals(Collections.singletonMap("b", new Value(2)), map);
+        Assert.assertTrue(MetaMap.EMPTY.isEmpty());
+    }
 }
@@ -0,0 +1,151 @@
+package org.dsa.iot.dslink.node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.dsa.iot.dslink.DSLink;
+import org.dsa.iot.dslink.DSLinkHandler;
+import org.dsa.iot.dslink.node.value.Value;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the publish policies of nodes.
+ */
+public class PublishFilterTest {
+
+    // Minimum publish interval in milliseconds
+    private static final long INTERVAL = 200;
+
+    @Test
+    public void suppressUnchanged() {
+        PublishPolicy policy = new PublishPolicy().setSuppressUnchanged(true);
+        PublishFilter filter = newFilter(policy);
+        Assert.assertTrue(filter.accept(new Value(1)));
+        Assert.assertFalse(filter.accept(new Value(1)));
+        Assert.assertTrue(filter.accept(new Value(2)));
+        Assert.assertTrue(filter.accept(new Value("2")));
+        Assert.assertTrue(filter.accept(null));
+        Assert.assertFalse(filter.accept(null));
+    }
+
+    @Test
+    public void absoluteDeadband() {
+        PublishFilter filter = newFilter(new PublishPolicy().setDeadband(0.5));
+        Assert.assertTrue(filter.accept(new Value(10.0)));
+        Assert.assertFalse(filter.accept(new Value(10.4)));
+        Assert.assertFalse(filter.accept(new Value(9.5)));
+        Assert.assertTrue(filter.accept(new Value(10.6)));
+        // Compared against the last published value
+        Assert.assertFalse(filter.accept(new Value(11)));
+        Assert.assertTrue(filter.accept(new Value(true)));
+    }
+
+    @Test
+    public void percentDeadband() {
+        PublishPolicy policy = new PublishPolicy().setPercentDeadband(10);
+        PublishFilter filter = newFilter(policy);
+        Assert.assertTrue(filter.accept(new Value(200)));
+        Assert.assertFalse(filter.accept(new Value(215)));
+        Assert.assertTrue(filter.accept(new Value(221)));
+    }
+
+    @Test
+    public void copiedPolicy() {
+        PublishPolicy policy = new PublishPolicy().setDeadband(1);
+        Node node = new Node("Test", null, null);
+        node.setPublishPolicy(policy);
+        policy.setDeadband(2);
+        Assert.assertEquals(1, node.getPublishPolicy().getDeadband(), 0);
+
+        node = new Node("Test", null, null);
+        node = node.createChild("child", false)
+                .setPublishPolicy(policy)
+                .build();
+        Assert.assertEquals(2, node.getPublishPolicy().getDeadband(), 0);
+    }
+
+    @Test
+    public void minIntervalPublishesLatest() throws InterruptedException {
+        DSLink link = createLink();
+        Node node = createSubscribedNode(link);
+        node.setValue(new Value(0));
+        for (int i = 1; i <= 3; i++) {
+            node.setValue(new Value(i));
+        }
+        // Held back until the interval passed
+        Assert.assertEquals(Collections.singletonList(0), published(node));
+
+        awaitPublished(node, 2);
+        Assert.assertEquals(3, (int) published(node).get(1));
+        Thread.sleep(INTERVAL);
+        Assert.assertEquals(2, published(node).size());
+
+        // Published right away once the interval passed
+        node.setValue(new Value(4));
+        Assert.assertEquals(4, (int) published(node).get(2));
+    }
+
+    @Test
+    public void minIntervalAppliesToBatches() throws InterruptedException {
+        DSLink link = createLink();
+        Node node = createSubscribedNode(link);
+        SubscriptionManager manager = link.getSubscriptionManager();
+        for (int i = 0; i <= 3; i++) {
+            manager.batchValueUpdate(Collections.singletonMap(node, new Value(i)), true);
+        }
+        Assert.assertEquals(Collections.singletonList(0), published(node));
+
+        awaitPublished(node, 2);
+        Assert.assertEquals(3, (int) published(node).get(1));
+        Assert.assertEquals(3, node.getValue().getNumber().intValue());
+    }
+
+    private static DSLink createLink() {
+        return new DSLink(new DSLinkHandler() {
+        }, false, "/") {
+        };
+    }
+
+    /**
+     * @return Node with a minimum publish interval and a QoS 2 subscription,
+     * which queues the updates it is posted.
+     */
+    private static Node createSubscribedNode(DSLink link) {
+        Node node = link.getNodeManager().createRootNode("Test").build();
+        node.setPublishPolicy(new PublishPolicy()
+                .setMinInterval(INTERVAL, TimeUnit.MILLISECONDS));
+        node.setShouldPostCachedValue(false);
+        link.getSubscriptionManager().addValueSub(node.getPath(), 1, 2);
+        Assert.assertNotNull(node.getSubscription());
+        return node;
+    }
+
+    private static List<Integer> published(Node node) {
+        SubscriptionManager.Subscription sub = node.getSubscription();
+        List<Integer> values = new ArrayList<>();
+        synchronized (sub) {
+            UpdateBuffer updates = sub.getUpdates();
+            if (updates != null) {
+                for (Value value : updates) {
+                    values.add(value.getNumber().intValue());
+                }
+            }
+        }
+        return values;
+    }
+
+    private static void awaitPublished(Node node, int count)
+                                            throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (published(node).size() < count && System.currentTimeMillis() < end) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(count, published(node).size());
+    }
+
+    private static PublishFilter newFilter(PublishPolicy policy) {
+        return new PublishFilter(new Node("Test", null, null), policy);
+    }
+}
@@ -0,0 +1,163 @@
+package org.dsa.iot.dslink.node;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Map;
+import org.dsa.iot.dslink.node.value.Value;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the QoS 3 journal.
+ */
+public class QosJournalTest {
+
+    private File dir;
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("journal").toFile();
+    }
+
+    @After
+    public void cleanup() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                Assert.assertTrue(f.delete());
+            }
+        }
+        Assert.assertTrue(dir.delete());
+    }
+
+    @Test
+    public void replay() {
+        QosJournal journal = new QosJournal(dir, 1024, 0);
+        journal.open();
+        journal.append("/a", new Value(1));
+        journal.append("/a", new Value("two"));
+        journal.append("/b", new Value(true));
+        journal.append("/c", new Value(3));
+        journal.clear("/c");
+        journal.close();
+
+        journal = new QosJournal(dir, 1024, 0);
+        Map<String, UpdateBuffer> restored = journal.open();
+        Assert.assertEquals(2, restored.size());
+        UpdateBuffer a = restored.get("/a");
+        Assert.assertEquals(1, a.poll().getNumber());
+        Assert.assertEquals("two", a.poll().getString());
+        Assert.assertEquals(true, restored.get("/b").poll().getBool());
+        journal.close();
+    }
+
+    @Test
+    public void closedIgnoresWrites() {
+        QosJournal journal = new QosJournal(dir, 1024, 0);
+        journal.open();
+        journal.append("/a", new Value(1));
+        journal.close();
+        Assert.assertFalse(journal.contains("/a"));
+        journal.append("/a", new Value(2));
+        journal.append("/b", new Value(3));
+
+        journal = new QosJournal(dir, 1024, 0);
+        Map<String, UpdateBuffer> restored = journal.open();
+        Assert.assertEquals(1, restored.size());
+        UpdateBuffer a = restored.get("/a");
+        Assert.assertEquals(1, a.size());
+        Assert.assertEquals(1, a.poll().getNumber());
+        journal.clear("/a");
+        journal.close();
+    }
+
+    @Test
+    public void deletedOnceCleared() {
+        QosJournal journal = new QosJournal(dir, 1024, 0);
+        journal.open();
+        journal.append("/a", new Value(1));
+        Assert.assertEquals(1, dir.list().length);
+        journal.clear("/a");
+        Assert.assertEquals(0, dir.list().length);
+        journal.close();
+    }
+
+    @Test
+    public void releasedNotReplayed() {
+        QosJournal journal = new QosJournal(dir, 1024, 0);
+        journal.open();
+        for (int i = 0; i < 5; i++) {
+            journal.append("/a", new Value(i));
+        }
+        journal.release("/a", 2);
+        journal.release("/a", 1);
+        journal.close();
+
+        // Only the updates that were not acked yet survive a restart
+        journal = new QosJournal(dir, 1024, 0);
+        UpdateBuffer a = journal.open().get("/a");
+        Assert.assertEquals(2, a.size());
+        Assert.assertEquals(3, a.poll().getNumber());
+        Assert.assertEquals(4, a.poll().getNumber());
+        journal.release("/a", 10);
+        Assert.assertTrue(journal.contains("/a"));
+        journal.close();
+
+        journal = new QosJournal(dir, 1024, 0);
+        Assert.assertTrue(journal.open().get("/a").isEmpty());
+        journal.clear("/a");
+        journal.close();
+    }
+
+    @Test
+    public void tornRecordDropped() throws Exception {
+        QosJournal journal = new QosJournal(dir, 1024, 0);
+        journal.open();
+        journal.append("/a", new Value(1));
+        journal.append("/a", new Value(2));
+        journal.close();
+
+        File seg = dir.listFiles()[0];
+        try (RandomAccessFile raf = new RandomAccessFile(seg, "rw")) {
+            // Corrupt the last byte of the second update
+            int pathRecord = 8 + 9 + 2;
+            int update = 8 + 22;
+            long pos = pathRecord + update + update - 1;
+            raf.seek(pos);
+            int b = raf.read();
+            raf.seek(pos);
+            raf.write(b ^ 0xFF);
+        }
+
+        journal = new QosJournal(dir, 1024, 0);
+        UpdateBuffer a = journal.open().get("/a");
+        Assert.assertEquals(1, a.size());
+        Assert.assertEquals(1, a.poll().getNumber());
+        journal.close();
+    }
+
+    @Test
+    public void compaction() {
+        QosJournal journal = new QosJournal(dir, 256, 2);
+        journal.open();
+        journal.append("/keep", new Value(-1));
+        for (int i = 0; i < 100; i++) {
+            journal.append("/a", new Value(i));
+        }
+        // Only the live records of the two streams remain
+        Assert.assertEquals(1, dir.list().length);
+        journal.close();
+
+        journal = new QosJournal(dir, 256, 2);
+        Map<String, UpdateBuffer> restored = journal.open();
+        UpdateBuffer a = restored.get("/a");
+        Assert.assertEquals(2, a.size());
+        Assert.assertEquals(98, a.poll().getNumber());
+        Assert.assertEquals(99, a.poll().getNumber());
+        Assert.assertEquals(-1, restored.get("/keep").poll().getNumber());
+        journal.close();
+    }
+}
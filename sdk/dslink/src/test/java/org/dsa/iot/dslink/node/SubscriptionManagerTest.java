@@ -0,0 +1,153 @@
+package org.dsa.iot.dslink.node;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.dsa.iot.dslink.DSLink;
+import org.dsa.iot.dslink.DSLinkHandler;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the catch-up of updates queued while disconnected.
+ */
+public class SubscriptionManagerTest {
+
+    // Estimated wire size of a numeric update
+    private static final int UPDATE_SIZE = 52;
+
+    @Test
+    public void backlogReplayedInBatches() {
+        SubscriptionManager manager = createManager();
+        SubscriptionManager.Subscription sub = backlogged(manager, 100);
+
+        List<Integer> sent = new ArrayList<>();
+        int batches = 0;
+        while (sub.hasUpdates()) {
+            List<Integer> batch = collect(manager, sub, 10 * UPDATE_SIZE);
+            Assert.assertEquals(10, batch.size());
+            sent.addAll(batch);
+            batches++;
+        }
+        Assert.assertEquals(10, batches);
+        assertSequence(sent, 0, 100);
+    }
+
+    @Test
+    public void liveUpdatesPassBacklog() {
+        SubscriptionManager manager = createManager();
+        SubscriptionManager.Subscription sub = backlogged(manager, 100);
+
+        List<Integer> backlog = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            int live = 1000 + i;
+            sub.postUpdate(new Value(live));
+            List<Integer> batch = collect(manager, sub, 10 * UPDATE_SIZE);
+            // The live update follows a bounded slice of the backlog
+            Assert.assertEquals(11, batch.size());
+            Assert.assertEquals(live, (int) batch.get(10));
+            backlog.addAll(batch.subList(0, 10));
+        }
+        assertSequence(backlog, 0, 50);
+        Assert.assertTrue(sub.hasUpdates());
+    }
+
+    @Test
+    public void orderPreservedAcrossBatches() {
+        SubscriptionManager manager = createManager();
+        SubscriptionManager.Subscription sub = backlogged(manager, 25);
+
+        List<Integer> sent = new ArrayList<>();
+        int live = 25;
+        while (sub.hasUpdates()) {
+            sub.postUpdate(new Value(live++));
+            sub.postUpdate(new Value(live++));
+            sent.addAll(collect(manager, sub, 4 * UPDATE_SIZE));
+            if (live > 1000) {
+                Assert.fail("Backlog never caught up");
+            }
+        }
+        // Backlog first, then every live update in the order posted
+        List<Integer> backlog = new ArrayList<>();
+        List<Integer> updates = new ArrayList<>();
+        for (int val : sent) {
+            (val < 25 ? backlog : updates).add(val);
+        }
+        assertSequence(backlog, 0, 25);
+        assertSequence(updates, 25, live - 25);
+    }
+
+    @Test
+    public void batchesEndOnCurrentValue() {
+        SubscriptionManager manager = createManager();
+        SubscriptionManager.Subscription sub = backlogged(manager, 30);
+        sub.postUpdate(new Value(1000));
+
+        List<Integer> backlog = new ArrayList<>();
+        int batches = 0;
+        while (sub.hasUpdates()) {
+            List<Integer> batch = collect(manager, sub, 10 * UPDATE_SIZE);
+            // Only the first batch carries the live update, later ones
+            // repeat it so the subscriber never ends on a replayed value
+            Assert.assertEquals(11, batch.size());
+            Assert.assertEquals(1000, (int) batch.get(10));
+            backlog.addAll(batch.subList(0, 10));
+            batches++;
+        }
+        Assert.assertEquals(3, batches);
+        assertSequence(backlog, 0, 30);
+
+        // Caught up, nothing is repeated anymore
+        sub.postUpdate(new Value(1001));
+        List<Integer> batch = collect(manager, sub, 10 * UPDATE_SIZE);
+        Assert.assertEquals(1, batch.size());
+        Assert.assertEquals(1001, (int) batch.get(0));
+    }
+
+    private static SubscriptionManager createManager() {
+        DSLinkHandler handler = new DSLinkHandler() {
+        };
+        DSLink link = new DSLink(handler, true, "/") {
+        };
+        return link.getSubscriptionManager();
+    }
+
+    /**
+     * @return A qos 2 subscription whose updates queued while disconnected
+     * are being caught up.
+     */
+    private static SubscriptionManager.Subscription backlogged(SubscriptionManager manager,
+                                                               int count) {
+        SubscriptionManager.Subscription sub = manager.new Subscription("/node", 1, 2);
+        for (int i = 0; i < count; i++) {
+            sub.postUpdate(new Value(i));
+        }
+        sub.startCatchUp();
+        return sub;
+    }
+
+    private static List<Integer> collect(SubscriptionManager manager,
+                                         SubscriptionManager.Subscription sub,
+                                         int catchUpBudget) {
+        SubscriptionManager.SubscriptionWriter writer = manager.new SubscriptionWriter();
+        writer.liveBudget = 1024;
+        writer.catchUpBudget = catchUpBudget;
+        JsonArray out = new JsonArray();
+        int count = sub.collect(out, 0, writer);
+        Assert.assertEquals(out.size(), count);
+        List<Integer> values = new ArrayList<>();
+        for (Object o : out) {
+            Object val = ((JsonArray) o).get(1);
+            values.add(((Number) val).intValue());
+        }
+        return values;
+    }
+
+    private static void assertSequence(List<Integer> values, int start, int count) {
+        Assert.assertEquals(count, values.size());
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(start + i, (int) values.get(i));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.dsa.iot.dslink.node;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the queued update ring buffer.
+ */
+public class UpdateBufferTest {
+
+    @Test
+    public void overwritesOldest() {
+        UpdateBuffer buffer = new UpdateBuffer(3);
+        for (int i = 0; i < 5; i++) {
+            buffer.add(new Value(i));
+        }
+        Assert.assertEquals(3, buffer.size());
+        Assert.assertTrue(buffer.isCompact());
+        Assert.assertEquals(2, buffer.poll().getNumber());
+        Assert.assertEquals(3, buffer.poll().getNumber());
+        Assert.assertEquals(4, buffer.poll().getNumber());
+        Assert.assertNull(buffer.poll());
+    }
+
+    @Test
+    public void unboundedGrows() {
+        UpdateBuffer buffer = new UpdateBuffer(0);
+        for (int i = 0; i < 100; i++) {
+            buffer.add(new Value(i));
+        }
+        Assert.assertEquals(100, buffer.size());
+        int i = 0;
+        for (Value v : buffer) {
+            Assert.assertEquals(i++, v.getNumber());
+        }
+    }
+
+    @Test
+    public void compactRoundTrip() {
+        UpdateBuffer buffer = new UpdateBuffer(8);
+        Value d = new Value(1.5);
+        d.setTime(1000);
+        buffer.add(d);
+        buffer.add(new Value(Long.MAX_VALUE));
+        buffer.add(new Value(true));
+        buffer.add(null);
+
+        Value v = buffer.poll();
+        Assert.assertEquals(1.5, v.getNumber());
+        Assert.assertEquals(1000, v.getTime());
+        Assert.assertEquals(Long.MAX_VALUE, buffer.poll().getNumber());
+        Assert.assertEquals(true, buffer.poll().getBool());
+        Assert.assertNull(buffer.poll());
+        Assert.assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void inflatesForObjects() {
+        UpdateBuffer buffer = new UpdateBuffer(2);
+        buffer.add(new Value(1));
+        buffer.add(new Value("a"));
+        Assert.assertFalse(buffer.isCompact());
+        buffer.add(new Value(new JsonObject()));
+
+        Assert.assertEquals(2, buffer.size());
+        Assert.assertEquals("a", buffer.poll().getString());
+        Assert.assertNotNull(buffer.poll().getMap());
+    }
+}
@@ -0,0 +1,171 @@
+package org.dsa.iot.dslink.node;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.dsa.iot.dslink.DSLink;
+import org.dsa.iot.dslink.DSLinkHandler;
+import org.dsa.iot.dslink.methods.responses.ListResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests virtual node providers.
+ */
+public class VirtualNodesTest {
+
+    @Test
+    public void materializeOnLookup() {
+        NodeManager manager = new NodeManager(null, "node");
+        Node root = manager.createRootNode("catalog").build();
+        manager.setVirtualNodeProvider(root, new Provider());
+
+        Node node = manager.getNode("/catalog/a/b").getNode();
+        Assert.assertEquals("/catalog/a/b", node.getPath());
+        Assert.assertSame(node, root.getChild("a", false).getChild("b", false));
+        Assert.assertNull(manager.getNode("/catalog/missing", false, false).getNode());
+        Assert.assertNull(manager.getNode("/other", false, false).getNode());
+    }
+
+    @Test
+    public void listAddsChildren() {
+        NodeManager manager = new NodeManager(null, "node");
+        Node root = manager.createRootNode("catalog").build();
+        manager.setVirtualNodeProvider(root, new Provider());
+        manager.listVirtualNodes(root);
+        Assert.assertEquals(3, root.getChildren().size());
+    }
+
+    @Test
+    public void lookupsWithoutMaterializing() {
+        NodeManager manager = new NodeManager(null, "node");
+        Node root = manager.createRootNode("catalog").build();
+        manager.setVirtualNodeProvider(root, new Provider());
+        Assert.assertNull(manager.peekNode("/catalog/a"));
+        Assert.assertFalse(root.hasChild("a", false));
+
+        Node node = manager.getNode("/catalog/a").getNode();
+        Assert.assertSame(node, manager.peekNode("/catalog/a"));
+    }
+
+    @Test
+    public void listTracksProvidedChildrenOnly() {
+        NodeManager manager = new NodeManager(null, "node");
+        Node root = manager.createRootNode("catalog").build();
+        Node fixed = root.createChild("fixed", false).build();
+        VirtualNodes nodes = new VirtualNodes(3);
+        nodes.setProvider(root, new Provider());
+
+        // Static children do not count against the limit
+        nodes.list(root);
+        nodes.run();
+        Assert.assertEquals(4, root.getChildren().size());
+        Assert.assertSame(fixed, root.getChild("fixed", false));
+    }
+
+    @Test
+    public void leastRecentlyUsedEvicted() throws InterruptedException {
+        NodeManager manager = new NodeManager(null, "node");
+        Node root = manager.createRootNode("catalog").build();
+        VirtualNodes nodes = new VirtualNodes(2);
+        nodes.setProvider(root, new Provider());
+
+        Node a = nodes.materialize(root, "a");
+        Node b = nodes.materialize(root, "b");
+        nodes.touch(a);
+        nodes.materialize(root, "c");
+        nodes.run();
+        awaitRemoved(root, "b");
+        Assert.assertTrue(root.hasChild("a", false));
+        Assert.assertTrue(root.hasChild("c", false));
+
+        // Nodes with children are kept
+        nodes.materialize(a, "d");
+        nodes.materialize(root, "e");
+        nodes.run();
+        awaitRemoved(root, "c");
+        Assert.assertSame(a, root.getChild("a", false));
+        Assert.assertTrue(root.hasChild("e", false));
+
+        // An evicted node is materialized again on its next lookup
+        Node again = nodes.materialize(root, "b");
+        Assert.assertNotSame(b, again);
+        Assert.assertSame(again, root.getChild("b", false));
+    }
+
+    @Test
+    public void usedNodesKept() throws InterruptedException {
+        DSLink link = new DSLink(new DSLinkHandler() {
+        }, false, "/") {
+        };
+        SubscriptionManager subs = link.getSubscriptionManager();
+        Node root = link.getNodeManager().createRootNode("catalog").build();
+        VirtualNodes nodes = new VirtualNodes(1);
+        nodes.setProvider(root, new Provider());
+
+        Node subscribed = nodes.materialize(root, "a");
+        subs.addValueSub(subscribed.getPath(), 1, 0);
+        Node listed = nodes.materialize(root, "b");
+        subs.addPathSub(listed.getPath(), new ListResponse(link, subs, 1,
+                listed, listed.getPath()));
+        Node late = nodes.materialize(root, "c");
+        subs.addValueSub(late.getPath(), 2, 0);
+        // Subscribed after the node was found evictable, the parent checks
+        // again while removing it
+        Assert.assertFalse(root.removeUnusedChild(late));
+        nodes.materialize(root, "d");
+        nodes.run();
+
+        Assert.assertSame(subscribed, root.getChild("a", false));
+        Assert.assertSame(listed, root.getChild("b", false));
+        Assert.assertSame(late, root.getChild("c", false));
+        Assert.assertNotNull(subscribed.getSubscription());
+        Assert.assertNotNull(late.getSubscription());
+
+        // Children of a listed node are kept
+        Node child = nodes.materialize(listed, "e");
+        nodes.materialize(root, "f");
+        nodes.materialize(root, "g");
+        nodes.run();
+        awaitRemoved(root, "f");
+        Assert.assertSame(child, listed.getChild("e", false));
+
+        // Once unsubscribed the node can be evicted again
+        subs.removeValueSub(2);
+        nodes.materialize(root, "h");
+        nodes.run();
+        awaitRemoved(root, "c");
+        Assert.assertSame(subscribed, root.getChild("a", false));
+    }
+
+    /**
+     * Evictions are also scheduled on the loop provider, waits for them.
+     */
+    private static void awaitRemoved(Node parent, String name)
+                                        throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (parent.hasChild(name, false) && System.currentTimeMillis() < end) {
+            Thread.sleep(1);
+        }
+        Assert.assertFalse(parent.hasChild(name, false));
+    }
+
+    private static class Provider implements VirtualNodeProvider {
+
+        @Override
+        public NodeBuilder materialize(Node parent, String name) {
+            if ("missing".equals(name)) {
+                return null;
+            }
+            return parent.createChild(name, false);
+        }
+
+        @Override
+        public void list(Node parent) {
+            List<Node> children = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                children.add(new Node("child" + i, parent, null));
+            }
+            parent.addChildren(children);
+        }
+    }
+}
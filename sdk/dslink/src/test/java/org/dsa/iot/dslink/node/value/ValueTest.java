@@ -1,5 +1,6 @@
 package org.dsa.iot.dslink.node.value;
 
+import java.math.BigDecimal;
 import org.dsa.iot.dslink.util.json.JsonArray;
 import org.junit.Assert;
 import org.junit.Test;
@@ -96,4 +97,42 @@ public class ValueTest {
         Assert.assertFalse(d.equals(e));
     }
 
+    @Test
+    public void primitives() {
+        Value val = new Value(1.5);
+        Assert.assertEquals(Value.PRIMITIVE_DOUBLE, val.getPrimitiveKind());
+        Assert.assertEquals(1.5, val.getDouble(), 0);
+        Assert.assertEquals(Double.valueOf(1.5), val.getNumber());
+
+        val = new Value(Long.MAX_VALUE);
+        Assert.assertEquals(Long.MAX_VALUE, val.getLong());
+        Assert.assertEquals(Long.valueOf(Long.MAX_VALUE), val.getNumber());
+
+        val = new Value(Integer.valueOf(3));
+        Assert.assertEquals(Value.PRIMITIVE_INT, val.getPrimitiveKind());
+        Assert.assertEquals(new Value(3), val);
+
+        val = new Value(2.5f);
+        Assert.assertEquals(Float.valueOf(2.5f), val.getNumber());
+
+        val = new Value(new BigDecimal("1.25"));
+        Assert.assertEquals(Value.PRIMITIVE_NONE, val.getPrimitiveKind());
+        Assert.assertEquals(1.25, val.getDouble(), 0);
+
+        val = new Value("test");
+        Assert.assertTrue(Double.isNaN(val.getDouble()));
+    }
+
+    @Test
+    public void timeStamp() {
+        Value val = new Value(1);
+        val.setTime(0);
+        Assert.assertEquals(0, val.getTime());
+        Assert.assertTrue(val.getTimeStamp().startsWith("19"));
+
+        String ts = "2017-01-01T00:00:00.000+02:00";
+        val = new Value(1, ts);
+        Assert.assertEquals(ts, val.getTimeStamp());
+        Assert.assertEquals(ts, ValueUtils.mutableCopy(val).getTimeStamp());
+    }
 }
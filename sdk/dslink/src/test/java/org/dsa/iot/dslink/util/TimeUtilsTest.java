@@ -87,6 +87,66 @@ public class TimeUtilsTest {
         }
     }
 
+    /**
+     * Not really a test, compares the cached formatter with encoding
+     * through a calendar.
+     */
+    @Test
+    public void formatPerformanceTest() {
+        int loops = 1000000;
+        long base = System.currentTimeMillis();
+        long sum = 0;
+        for (int i = loops; --i >= 0; ) {
+            sum += TimeUtils.encode(base + i, true).length();
+            sum += TimeUtils.format(base + i).length();
+        }
+        long start = System.nanoTime();
+        for (int i = loops; --i >= 0; ) {
+            sum += TimeUtils.encode(base + i, true).length();
+        }
+        long mid = System.nanoTime();
+        for (int i = loops; --i >= 0; ) {
+            sum += TimeUtils.format(base + i).length();
+        }
+        long end = System.nanoTime();
+        System.out.println("Encode = " + ((mid - start) / loops) + "ns/op");
+        System.out.println("Format = " + ((end - mid) / loops) + "ns/op");
+        Assert.assertTrue(sum > 0);
+    }
+
+    @Test
+    public void testFormatting() {
+        TimeZone def = TimeZone.getDefault();
+        try {
+            String[] zones = {"America/Los_Angeles", "GMT", "Asia/Kolkata"};
+            for (String zone : zones) {
+                TimeZone.setDefault(TimeZone.getTimeZone(zone));
+                // Crosses the daylight saving time transitions of 2016
+                long time = make(2016, 2, 13, 0, 0, 0).getTimeInMillis();
+                for (int i = 0; i < 2000; i++) {
+                    time += 7 * 60 * 1000 + 1234;
+                    validateFormat(time);
+                }
+                time = make(2016, 10, 6, 0, 30, 0).getTimeInMillis();
+                for (int i = 0; i < 2000; i++) {
+                    time += 997;
+                    validateFormat(time);
+                }
+            }
+            validateFormat(-62135769600000L - 1);
+            validateFormat(0);
+        } finally {
+            TimeZone.setDefault(def);
+        }
+    }
+
+    private void validateFormat(long time) {
+        String expected = TimeUtils.encode(time, true).toString();
+        Assert.assertEquals(expected, TimeUtils.format(time));
+        StringBuilder buf = new StringBuilder("x");
+        Assert.assertEquals("x" + expected, TimeUtils.format(time, buf).toString());
+    }
+
     @Test
     public void testAdding() {
         Calendar cal = make(2016,3,6,8,55,30);
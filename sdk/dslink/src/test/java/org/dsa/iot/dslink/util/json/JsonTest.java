@@ -0,0 +1,100 @@
+package org.dsa.iot.dslink.util.json;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+/**
+ * Tests encoding and decoding in every supported format.
+ */
+public class JsonTest {
+
+    @Test
+    public void jsonRoundTrip() {
+        roundTrip(EncodingFormat.JSON);
+    }
+
+    @Test
+    public void msgpackRoundTrip() {
+        roundTrip(EncodingFormat.MSGPACK);
+    }
+
+    @Test
+    public void streamingEncode() {
+        for (EncodingFormat format : EncodingFormat.values()) {
+            JsonObject obj = new JsonObject();
+            obj.put("msg", 1);
+            obj.put("responses", new JsonArray().add(new JsonObject().put("rid", 0)));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            obj.encode(format, out);
+            Assert.assertArrayEquals(obj.encode(format), out.toByteArray());
+        }
+    }
+
+    @Test
+    public void streamingDecode() {
+        for (EncodingFormat format : EncodingFormat.values()) {
+            JsonObject obj = new JsonObject();
+            obj.put("msg", 2);
+            obj.put("ack", 1);
+
+            ByteBuf buf = Unpooled.directBuffer();
+            try {
+                buf.writeBytes(obj.encode(format));
+                InputStream in = new ByteBufInputStream(buf);
+                JsonObject decoded = new JsonObject(format, in);
+                Assert.assertEquals(2, decoded.<Number>get("msg").intValue());
+                Assert.assertEquals(1, decoded.<Number>get("ack").intValue());
+            } finally {
+                buf.release();
+            }
+        }
+    }
+
+    @Test
+    public void formatLookup() {
+        Assert.assertEquals(EncodingFormat.JSON, EncodingFormat.toEnum(null));
+        Assert.assertEquals(EncodingFormat.JSON, EncodingFormat.toEnum("json"));
+        Assert.assertEquals(EncodingFormat.MSGPACK, EncodingFormat.toEnum("msgpack"));
+        Assert.assertEquals(EncodingFormat.MSGPACK, EncodingFormat.toEnum("MSGPACK"));
+        Assert.assertEquals(EncodingFormat.JSON, EncodingFormat.toEnum("unknown"));
+    }
+
+    private static void roundTrip(EncodingFormat format) {
+        JsonArray update = new JsonArray();
+        update.add(1);
+        update.add(12.5);
+        update.add("2016-01-01T00:00:00.000-00:00");
+
+        JsonObject obj = new JsonObject();
+        obj.put("msg", 5);
+        obj.put("bool", true);
+        obj.put("str", "text");
+        obj.put("null", null);
+        obj.put("updates", new JsonArray().add(update));
+
+        byte[] bytes = obj.encode(format);
+        JsonObject decoded = new JsonObject(format, bytes);
+        Assert.assertEquals(5, decoded.<Number>get("msg").intValue());
+        Assert.assertEquals(true, decoded.get("bool"));
+        Assert.assertEquals("text", decoded.get("str"));
+        Assert.assertTrue(decoded.contains("null"));
+        Assert.assertNull(decoded.get("null"));
+
+        JsonArray updates = decoded.get("updates");
+        Assert.assertEquals(1, updates.size());
+        JsonArray tuple = updates.get(0);
+        Assert.assertEquals(1, tuple.<Number>get(0).intValue());
+        Assert.assertEquals(12.5, tuple.<Number>get(1).doubleValue(), 0);
+        Assert.assertEquals("2016-01-01T00:00:00.000-00:00", tuple.get(2));
+
+        JsonArray array = new JsonArray(format, update.encode(format));
+        Assert.assertEquals(3, array.size());
+    }
+}